@@ -0,0 +1,88 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Block splitting, encryption and decryption across key sizes and message
+ * lengths
+ * 
+ * @author Eric
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CryptoBenchmark {
+
+    @Param({ "100", "300", "600" })
+    int numOfDigits;
+
+    @Param({ "64", "4096", "65536" })
+    int messageBytes;
+
+    private PublicKey pubKey;
+    private PrivateKey privKey;
+    private byte[] message;
+    private List<BigInteger> cipherText;
+    private BigInteger block;
+
+    @Setup
+    public void setup() {
+        KeyPair keyPair = RSA.generateKeyPair(numOfDigits, true);
+        pubKey = keyPair.getPublicKey();
+        privKey = keyPair.getPrivateKey();
+
+        message = new byte[messageBytes];
+        new Random(42).nextBytes(message);
+        cipherText = RSA.encrypt(message, pubKey);
+        block = cipherText.get(0);
+    }
+
+    @Benchmark
+    public List<BigInteger> splitIntoBlocks() {
+        return RSA.splitIntoBlocks(message, pubKey.getN());
+    }
+
+    @Benchmark
+    public List<BigInteger> encrypt() {
+        return RSA.encrypt(message, pubKey);
+    }
+
+    @Benchmark
+    public List<BigInteger> encryptParallel() {
+        return RSA.encrypt(message, pubKey, null);
+    }
+
+    @Benchmark
+    public byte[] decryptAll() {
+        return RSA.decryptAll(cipherText, privKey, null);
+    }
+
+    @Benchmark
+    public BigInteger decryptBlock() {
+        return RSA.decrypt(block, privKey);
+    }
+
+    @Benchmark
+    public BigInteger decryptBlockWithoutCRT() {
+        return block.modPow(privKey.getD(), privKey.getN());
+    }
+}
@@ -0,0 +1,132 @@
+package rsa;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Key files and cipher text files, in the binary formats and in the formats
+ * they replaced
+ * 
+ * @author Eric
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileBenchmark {
+
+    @Param({ "100", "300", "600" })
+    int numOfDigits;
+
+    @Param({ "16", "1024" })
+    int blocks;
+
+    private PrivateKey privKey;
+    private BigInteger n;
+    private List<BigInteger> cipherText;
+
+    private File keyFile;
+    private File serializedKeyFile;
+    private File cipherFile;
+    private File decimalCipherFile;
+    private File scratchFile;
+
+    @Setup
+    public void setup() throws IOException {
+        KeyPair keyPair = RSA.generateKeyPair(numOfDigits, true);
+        privKey = keyPair.getPrivateKey();
+        n = privKey.getN();
+
+        byte[] message = new byte[BlockCodec.blockBytes(n) * blocks - 1];
+        new Random(42).nextBytes(message);
+        cipherText = RSA.encrypt(message, keyPair.getPublicKey());
+
+        keyFile = File.createTempFile("bench", ".key");
+        RSA.saveKey(privKey, keyFile.getPath());
+
+        serializedKeyFile = File.createTempFile("bench", ".ser");
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serializedKeyFile));
+        out.writeObject(privKey);
+        out.close();
+
+        cipherFile = File.createTempFile("bench", ".bin");
+        RSA.saveCipherText(cipherText, n, cipherFile.getPath());
+
+        // one decimal block per line, as saveCipherText used to write
+        decimalCipherFile = File.createTempFile("bench", ".txt");
+        PrintWriter text = new PrintWriter(decimalCipherFile);
+        for (BigInteger c : cipherText) {
+            text.println(c);
+        }
+        text.close();
+
+        scratchFile = File.createTempFile("bench", ".out");
+    }
+
+    @TearDown
+    public void tearDown() {
+        keyFile.delete();
+        serializedKeyFile.delete();
+        cipherFile.delete();
+        decimalCipherFile.delete();
+        scratchFile.delete();
+    }
+
+    @Benchmark
+    public void saveKey() throws IOException {
+        RSA.saveKey(privKey, scratchFile.getPath());
+    }
+
+    @Benchmark
+    public Object readKey() throws IOException {
+        return RSA.readKey(keyFile.getPath());
+    }
+
+    @Benchmark
+    public Object readSerializedKey() throws IOException {
+        return RSA.readKey(serializedKeyFile.getPath());
+    }
+
+    @Benchmark
+    public Object loadKeyCached() throws IOException {
+        return RSA.loadKey(keyFile.getPath());
+    }
+
+    @Benchmark
+    public void saveCipherText() throws IOException {
+        RSA.saveCipherText(cipherText, n, scratchFile.getPath());
+    }
+
+    @Benchmark
+    public List<BigInteger> loadCipherText() throws IOException {
+        return RSA.loadCipherText(cipherFile.getPath());
+    }
+
+    @Benchmark
+    public List<BigInteger> loadDecimalCipherText() throws IOException {
+        return RSA.loadCipherText(decimalCipherFile.getPath());
+    }
+}
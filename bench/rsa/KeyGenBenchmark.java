@@ -0,0 +1,79 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Key generation, and the sieved prime search against BigInteger's own
+ * 
+ * @author Eric
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeyGenBenchmark {
+
+    @Param({ "100", "300", "600" })
+    int numOfDigits;
+
+    @Param({ "true", "false" })
+    boolean fixedExponent;
+
+    private SecureRandom r;
+    private int bitLength;
+
+    @Setup
+    public void setup() {
+        r = new SecureRandom();
+        // same conversion as RSA.generateKeyPair
+        bitLength = (int) (numOfDigits * (Math.log(10) / Math.log(2)));
+    }
+
+    @Benchmark
+    public KeyPair generateKeyPair() {
+        return RSA.generateKeyPair(numOfDigits, fixedExponent);
+    }
+
+    @Benchmark
+    public BigInteger primeSieve() {
+        BigInteger prime = null;
+        while (prime == null) {
+            prime = PrimeSearch.searchWindow(bitLength, null, r, null, null);
+        }
+        return prime;
+    }
+
+    /**
+     * What RSA used before the sieve. Certainty 1 makes the JDK certify the
+     * prime with a single Miller-Rabin round plus a Lucas test.
+     */
+    @Benchmark
+    public BigInteger primeBigInteger() {
+        return new BigInteger(bitLength, 1, r);
+    }
+
+    /**
+     * The JDK search at the certainty PrimeSearch tests with
+     */
+    @Benchmark
+    public BigInteger primeBigIntegerSameCertainty() {
+        return new BigInteger(bitLength, 100, r);
+    }
+}
@@ -0,0 +1,69 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MontgomeryContext against BigInteger.modPow
+ * 
+ * @author Eric
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ModPowBenchmark {
+
+    @Param({ "1024", "2048", "4096" })
+    int bits;
+
+    private BigInteger n;
+    private BigInteger base;
+    private BigInteger exponent;
+    private MontgomeryContext context;
+
+    @Setup
+    public void setup() {
+        Random r = new Random(42);
+        n = new BigInteger(bits, r).setBit(bits - 1).setBit(0);
+        base = new BigInteger(bits - 1, r);
+        exponent = new BigInteger(bits, r);
+        context = new MontgomeryContext(n);
+    }
+
+    @Benchmark
+    public BigInteger bigInteger() {
+        return base.modPow(exponent, n);
+    }
+
+    @Benchmark
+    public BigInteger montgomery() {
+        return context.modPow(base, exponent);
+    }
+
+    @Benchmark
+    public BigInteger bigIntegerPublicExponent() {
+        return base.modPow(RSA.PUBLIC_EXPONENT, n);
+    }
+
+    @Benchmark
+    public BigInteger montgomeryPublicExponent() {
+        return context.modPow(base, RSA.PUBLIC_EXPONENT);
+    }
+}
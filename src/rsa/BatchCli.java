@@ -0,0 +1,639 @@
+package rsa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Non-interactive command line for scripts and batch jobs. RSA.main runs it
+ * when it is given arguments.
+ *
+ * Every command takes any number of files and runs them all in one JVM, so
+ * the JIT warm-up and key loading are paid once per batch. Files are
+ * processed at the same time on --threads threads. A file that fails is
+ * reported and the rest of the batch still runs; the exit code is then 1.
+ * Output files are written under a temporary name and only renamed once they
+ * are complete, so a failed file never replaces an existing one.
+ *
+ * @author Eric
+ *
+ */
+public class BatchCli {
+
+    static final String USAGE = "Usage:\n"
+            + "  keygen [--digits N] [--fixed-exponent] <pub file> <priv file> [<pub file> <priv file> ...]\n"
+            + "  encrypt --pub <key file> [--out <dir>] [--threads N] [--force] <file>...\n"
+            + "      writes <file>.rsa\n"
+            + "  decrypt --priv <key file> [--out <dir>] [--threads N] [--force] <file>...\n"
+            + "      writes <file> without .rsa, or <file>.dec\n"
+            + "      existing output files are only replaced with --force\n"
+            + "  bench [--digits N] [--size BYTES] [--messages N] [--threads N]\n"
+            + "  selftest [--cases N] [--keys N] [--min-digits N] [--max-digits N] [--max-bytes N] [--threads N]\n"
+            + "           [--seed N] [--files] [--case SEED]\n"
+            + "      --case reruns one reported case, with the --seed of the run\n"
+            + "  serve [--port N] [--threads N] [--max-batch N] <key file>...\n"
+            + "      serves the keys on localhost, each under its file name; --port 0 picks a free port\n"
+            + "  load --port N --pub <key id> --priv <key id> [--clients N] [--requests N] [--warmup N] [--size BYTES]\n"
+            + "      --requests and --warmup are round trips per client, each an encrypt and a decrypt";
+
+    static final String CIPHER_SUFFIX = ".rsa";
+    static final String PLAIN_SUFFIX = ".dec";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    public BatchCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    /**
+     * Runs a command line
+     *
+     * @param args
+     * @return int - exit code, 0 on success, 1 if something failed and 2 for
+     *         bad arguments
+     */
+    public int run(String[] args) {
+
+        if (args.length == 0) {
+            err.println(USAGE);
+            return 2;
+        }
+
+        Options options;
+        try {
+            options = new Options(Arrays.copyOfRange(args, 1, args.length));
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+
+        try {
+            String command = args[0];
+            if (command.equals("keygen")) {
+                return keygen(options);
+            }
+            if (command.equals("encrypt")) {
+                return encrypt(options);
+            }
+            if (command.equals("decrypt")) {
+                return decrypt(options);
+            }
+            if (command.equals("bench")) {
+                return bench(options);
+            }
+            if (command.equals("selftest")) {
+                return selftest(options);
+            }
+            if (command.equals("serve")) {
+                return serve(options);
+            }
+            if (command.equals("load")) {
+                return load(options);
+            }
+            err.println("Unknown command: " + command);
+            err.println(USAGE);
+            return 2;
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        } catch (IOException e) {
+            err.println(e.getMessage());
+            return 1;
+        } catch (RuntimeException e) {
+            err.println(e.getCause() == null ? e.getMessage() : e.getMessage() + ": " + e.getCause());
+            return 1;
+        }
+    }
+
+    private int keygen(Options options) throws IOException {
+
+        final int digits = options.getInt("digits", 300);
+        final boolean fixedExponent = options.getFlag("fixed-exponent");
+        List<String> files = options.getFiles();
+        if (files.isEmpty() || files.size() % 2 != 0) {
+            throw new IllegalArgumentException("keygen needs pairs of public and private key files");
+        }
+
+        // the prime search already uses every core, so pairs are made one at a time
+        int failed = 0;
+        for (int i = 0; i < files.size(); i += 2) {
+            String pubFileName = files.get(i);
+            String privFileName = files.get(i + 1);
+            try {
+                RSA.createKeys(digits, pubFileName, privFileName, fixedExponent);
+                out.println("created " + pubFileName + " " + privFileName);
+            } catch (IOException e) {
+                err.println(pubFileName + ": " + e.getMessage());
+                failed++;
+            }
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    private int encrypt(Options options) throws IOException {
+
+        final PublicKey pubKey = loadPublicKey(options.getRequired("pub"));
+        final File outDir = options.getDir("out");
+        final boolean force = options.getFlag("force");
+
+        return forEachFile(options, new FileTask() {
+            @Override
+            public String run(String fileName) throws IOException {
+                File target = new File(outDir(fileName, outDir), new File(fileName).getName() + CIPHER_SUFFIX);
+                final InputStream in = new FileInputStream(fileName);
+                try {
+                    long blocks = writeFile(target, force, new OutputTask() {
+                        @Override
+                        public long write(OutputStream fileOut) throws IOException {
+                            return new StreamingEncryptor(pubKey).encrypt(in, fileOut);
+                        }
+                    });
+                    return "encrypted " + fileName + " -> " + target + " (" + blocks + " blocks)";
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+    private int decrypt(Options options) throws IOException {
+
+        final PrivateKey privKey = loadPrivateKey(options.getRequired("priv"));
+        final File outDir = options.getDir("out");
+        final boolean force = options.getFlag("force");
+
+        return forEachFile(options, new FileTask() {
+            @Override
+            public String run(final String fileName) throws IOException {
+                String name = new File(fileName).getName();
+                name = name.endsWith(CIPHER_SUFFIX) && name.length() > CIPHER_SUFFIX.length()
+                        ? name.substring(0, name.length() - CIPHER_SUFFIX.length())
+                        : name + PLAIN_SUFFIX;
+                File target = new File(outDir(fileName, outDir), name);
+
+                final InputStream in = new BufferedInputStream(new FileInputStream(fileName));
+                try {
+                    long blocks = writeFile(target, force, new OutputTask() {
+                        @Override
+                        public long write(OutputStream fileOut) throws IOException {
+                            return decryptFile(fileName, in, privKey, fileOut);
+                        }
+                    });
+                    return "decrypted " + fileName + " -> " + target + " (" + blocks + " blocks)";
+                } finally {
+                    in.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Writes the output of one file to a temporary file next to the target and
+     * renames it to the target once the writer succeeded. The temporary file
+     * is deleted if the writer fails. An existing target is only replaced if
+     * force is set.
+     *
+     * @param target
+     * @param force
+     * @param writer
+     * @return long - what the writer returned
+     * @throws IOException
+     */
+    private static long writeFile(File target, boolean force, OutputTask writer) throws IOException {
+
+        if (!force && target.exists()) {
+            throw new IOException(target + " already exists, use --force to replace it");
+        }
+        File temp = File.createTempFile(target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+        boolean renamed = false;
+        try {
+            long result;
+            OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(temp));
+            try {
+                result = writer.write(fileOut);
+            } finally {
+                fileOut.close();
+            }
+            if (force) {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                // fails if the target was created since the check above
+                Files.move(temp.toPath(), target.toPath());
+            }
+            renamed = true;
+            return result;
+        } finally {
+            if (!renamed) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * Decrypts a binary cipher text file as a stream, or a file with one
+     * decimal block per line through the legacy text path
+     */
+    private static long decryptFile(String fileName, InputStream in, PrivateKey privKey, OutputStream out)
+            throws IOException {
+
+        byte[] header = new byte[4];
+        in.mark(header.length);
+        int headerLength = in.read(header);
+        in.reset();
+
+        if (headerLength == header.length && CipherTextReader.isCipherText(header)) {
+            return new StreamingDecryptor(privKey).decrypt(in, out);
+        }
+
+        List<BigInteger> cipherText = RSA.loadCipherText(fileName);
+        out.write(RSA.decryptLegacyText(cipherText, privKey).getBytes(StandardCharsets.UTF_8));
+        return cipherText.size();
+    }
+
+    private int bench(Options options) {
+
+        int digits = options.getInt("digits", 300);
+        int size = options.getInt("size", 4096);
+        int messages = options.getInt("messages", 1000);
+        int threads = options.getInt("threads", Runtime.getRuntime().availableProcessors());
+
+        out.println("Generating a " + digits + " digit key...");
+        KeyPair keyPair = RSA.generateKeyPair(digits, true);
+        byte[] message = new byte[size];
+        new SecureRandom().nextBytes(message);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            // warm up before anything is recorded
+            roundTrips(keyPair, message, Math.max(1, messages / 10), executor);
+
+            MetricsRegistry metrics = new MetricsRegistry();
+            long nanos;
+            RSA.setListener(new MetricsListener(metrics));
+            try {
+                long start = System.nanoTime();
+                roundTrips(keyPair, message, messages, executor);
+                nanos = System.nanoTime() - start;
+            } finally {
+                RSA.setListener(null);
+            }
+
+            double seconds = nanos / 1e9;
+            out.printf("%d round trips of %d bytes on %d threads in %.2fs: %.1f msg/s, %.2f MB/s%n", messages,
+                    size, threads, seconds, messages / seconds, (double) messages * size / seconds / 1e6);
+            out.print(metrics.snapshot());
+        } finally {
+            executor.shutdownNow();
+        }
+        return 0;
+    }
+
+    /**
+     * Encrypts and decrypts the message count times on the executor, through
+     * the binary cipher text format in memory
+     */
+    private static void roundTrips(final KeyPair keyPair, final byte[] message, int count,
+            ExecutorService executor) {
+
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(count);
+        for (int i = 0; i < count; i++) {
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    ByteArrayOutputStream cipherText = new ByteArrayOutputStream();
+                    new StreamingEncryptor(keyPair.getPublicKey()).encrypt(new ByteArrayInputStream(message),
+                            cipherText);
+                    ByteArrayOutputStream plainText = new ByteArrayOutputStream(message.length);
+                    new StreamingDecryptor(keyPair.getPrivateKey())
+                            .decrypt(new ByteArrayInputStream(cipherText.toByteArray()), plainText);
+                    if (!Arrays.equals(message, plainText.toByteArray())) {
+                        throw new IllegalStateException("Round trip failed");
+                    }
+                    return null;
+                }
+            });
+        }
+        await(runAll(tasks, executor));
+    }
+
+    private int selftest(Options options) throws IOException {
+
+        SelfTest selfTest = new SelfTest(options.getInt("keys", 4), options.getInt("min-digits", 10),
+                options.getInt("max-digits", 600), options.getInt("max-bytes", 1024),
+                options.getInt("threads", Runtime.getRuntime().availableProcessors()));
+        selfTest.setFileRoundTrip(options.getFlag("files"));
+        selfTest.setSeed(options.getLong("seed", selfTest.getSeed()));
+
+        if (options.getFlag("case")) {
+            if (!options.getFlag("seed")) {
+                throw new IllegalArgumentException("--case needs the --seed of the run it failed in");
+            }
+            long caseSeed = options.getLong("case", 0);
+            try {
+                selfTest.runCase(caseSeed);
+            } catch (IOException e) {
+                out.println("case seed " + caseSeed + " failed: " + e);
+                return 1;
+            } catch (RuntimeException e) {
+                out.println("case seed " + caseSeed + " failed: " + e);
+                return 1;
+            }
+            out.println("case seed " + caseSeed + " succeeded");
+            return 0;
+        }
+
+        SelfTest.Result result = selfTest.run(options.getInt("cases", 1000));
+        out.print(result);
+        return result.isSuccess() ? 0 : 1;
+    }
+
+    private int serve(Options options) throws IOException {
+
+        List<String> files = options.getFiles();
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No key files");
+        }
+        final RSAServer server = new RSAServer(options.getPort("port", 7465),
+                options.getInt("threads", Runtime.getRuntime().availableProcessors()),
+                options.getInt("max-batch", 256));
+        for (String fileName : files) {
+            Object key = RSA.loadKey(fileName);
+            if (key instanceof PrivateKey) {
+                server.addPrivateKey(fileName, (PrivateKey) key);
+            } else if (key instanceof PublicKey) {
+                server.addPublicKey(fileName, (PublicKey) key);
+            } else {
+                throw new IllegalArgumentException(fileName + " is not a key");
+            }
+        }
+
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    server.close();
+                } catch (IOException e) {
+                    // exiting anyway
+                }
+            }
+        }));
+        out.println("Listening on localhost:" + server.getPort()
+                + (VirtualThreads.isAvailable() ? " with virtual threads" : ""));
+
+        // serve until the process is stopped
+        try {
+            new CountDownLatch(1).await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return 0;
+    }
+
+    private int load(Options options) throws IOException {
+
+        LoadGenerator generator = new LoadGenerator(options.getInt("port", 7465), options.getRequired("pub"),
+                options.getRequired("priv"), options.getInt("clients", 16), options.getInt("size", 256));
+        out.print(generator.run(options.getInt("warmup", 100), options.getInt("requests", 1000)));
+        return 0;
+    }
+
+    private static PublicKey loadPublicKey(String fileName) throws IOException {
+        Object key = RSA.loadKey(fileName);
+        if (!(key instanceof PublicKey)) {
+            throw new IllegalArgumentException(fileName + " is not a public key");
+        }
+        return (PublicKey) key;
+    }
+
+    private static PrivateKey loadPrivateKey(String fileName) throws IOException {
+        Object key = RSA.loadKey(fileName);
+        if (!(key instanceof PrivateKey)) {
+            throw new IllegalArgumentException(fileName + " is not a private key");
+        }
+        return (PrivateKey) key;
+    }
+
+    /**
+     * Work done for one file of a batch
+     */
+    private interface FileTask {
+        /**
+         * @return String - line reported for the file
+         */
+        String run(String fileName) throws IOException;
+    }
+
+    /**
+     * Writes the output of one file
+     */
+    private interface OutputTask {
+        /**
+         * @return long - number of blocks written or read
+         */
+        long write(OutputStream out) throws IOException;
+    }
+
+    /**
+     * Runs the task for every file on --threads threads and reports each
+     * file in the order given
+     */
+    private int forEachFile(Options options, final FileTask task) {
+
+        List<String> files = options.getFiles();
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No input files");
+        }
+        int threads = Math.min(files.size(), options.getInt("threads", Runtime.getRuntime().availableProcessors()));
+
+        List<Callable<String>> tasks = new ArrayList<Callable<String>>(files.size());
+        for (final String fileName : files) {
+            tasks.add(new Callable<String>() {
+                @Override
+                public String call() throws IOException {
+                    return task.run(fileName);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        int failed = 0;
+        try {
+            List<Future<String>> results = runAll(tasks, executor);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    out.println(results.get(i).get());
+                } catch (ExecutionException e) {
+                    err.println(files.get(i) + ": " + e.getCause());
+                    failed++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for files", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed == 0 ? 0 : 1;
+    }
+
+    private static <T> List<Future<T>> runAll(List<Callable<T>> tasks, ExecutorService executor) {
+        try {
+            return executor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tasks", e);
+        }
+    }
+
+    /**
+     * Waits for every future and rethrows the first failure
+     */
+    private static void await(List<? extends Future<?>> futures) {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for tasks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Task failed", e.getCause());
+        }
+    }
+
+    private static File outDir(String fileName, File outDir) {
+        return outDir != null ? outDir : new File(fileName).getAbsoluteFile().getParentFile();
+    }
+
+    /**
+     * Options of the form --name value or --flag, and the files after them
+     */
+    static class Options {
+
+        private static final List<String> FLAGS = Arrays.asList("fixed-exponent", "files", "force");
+
+        private final Map<String, String> values = new HashMap<String, String>();
+        private final List<String> files = new ArrayList<String>();
+
+        Options(String[] args) {
+            for (int i = 0; i < args.length; i++) {
+                if (!args[i].startsWith("--")) {
+                    files.add(args[i]);
+                    continue;
+                }
+                String name = args[i].substring(2);
+                if (FLAGS.contains(name)) {
+                    values.put(name, "true");
+                } else if (i + 1 < args.length) {
+                    values.put(name, args[++i]);
+                } else {
+                    throw new IllegalArgumentException("Missing value for --" + name);
+                }
+            }
+        }
+
+        List<String> getFiles() {
+            return files;
+        }
+
+        boolean getFlag(String name) {
+            return values.containsKey(name);
+        }
+
+        String getRequired(String name) {
+            String value = values.get(name);
+            if (value == null) {
+                throw new IllegalArgumentException("Missing --" + name);
+            }
+            return value;
+        }
+
+        int getInt(String name, int defaultValue) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                int number = Integer.parseInt(value);
+                if (number <= 0) {
+                    throw new IllegalArgumentException("--" + name + " must be > 0");
+                }
+                return number;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+            }
+        }
+
+        /**
+         * A port number, 0 asks for any free port
+         */
+        int getPort(String name, int defaultValue) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                int port = Integer.parseInt(value);
+                if (port < 0 || port > 65535) {
+                    throw new IllegalArgumentException("--" + name + " must be 0 to 65535");
+                }
+                return port;
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+            }
+        }
+
+        long getLong(String name, long defaultValue) {
+            String value = values.get(name);
+            if (value == null) {
+                return defaultValue;
+            }
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("--" + name + " is not a number: " + value);
+            }
+        }
+
+        File getDir(String name) {
+            String value = values.get(name);
+            if (value == null) {
+                return null;
+            }
+            File dir = new File(value);
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IllegalArgumentException("Cannot create --" + name + " directory: " + value);
+            }
+            return dir;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package rsa;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Packs bytes into blocks smaller than the modulus and back.
+ *
+ * Each block holds floor((bitLength(n) - 1) / 8) bytes, read as an unsigned
+ * big-endian number. The data is padded ISO/IEC 7816-4 style: a 0x80 byte
+ * followed by zero bytes up to the end of the last block. Every block is
+ * therefore full, leading zero bytes survive the round trip and the length of
+ * the data is recovered from the padding. Data that fills its last block
+ * exactly gets one more block of padding.
+ *
+ * @author Eric
+ *
+ */
+final class BlockCodec {
+
+    private static final byte PAD = (byte) 0x80;
+
+    private BlockCodec() {
+    }
+
+    /**
+     * Number of bytes in a block for the modulus
+     *
+     * @param n
+     * @return
+     */
+    static int blockBytes(BigInteger n) {
+
+        // Subtract 1 from bit length to ensure block < modulus
+        int bytes = (n.bitLength() - 1) / 8;
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Modulus is too small to hold a byte: " + n);
+        }
+        return bytes;
+    }
+
+    /**
+     * Splits the data into padded blocks
+     *
+     * @param data
+     * @param n
+     * @return
+     */
+    static List<BigInteger> split(byte[] data, BigInteger n) {
+
+        int blockBytes = blockBytes(n);
+        List<BigInteger> blocks = new ArrayList<BigInteger>(data.length / blockBytes + 1);
+        byte[] block = new byte[blockBytes];
+
+        int i = 0;
+        for (; i + blockBytes <= data.length; i += blockBytes) {
+            System.arraycopy(data, i, block, 0, blockBytes);
+            blocks.add(toBlock(block));
+        }
+
+        int rest = data.length - i;
+        System.arraycopy(data, i, block, 0, rest);
+        blocks.add(toLastBlock(block, rest));
+        return blocks;
+    }
+
+    /**
+     * Reads a full block
+     *
+     * @param block
+     * @return
+     */
+    static BigInteger toBlock(byte[] block) {
+        return new BigInteger(1, block);
+    }
+
+    /**
+     * Pads the first length bytes of block and reads it. length must be less
+     * than the block size.
+     *
+     * @param block
+     * @param length
+     * @return
+     */
+    static BigInteger toLastBlock(byte[] block, int length) {
+
+        block[length] = PAD;
+        for (int i = length + 1; i < block.length; i++) {
+            block[i] = 0;
+        }
+        return new BigInteger(1, block);
+    }
+
+    /**
+     * Writes a block back to blockBytes bytes
+     *
+     * @param m
+     * @param blockBytes
+     * @return
+     */
+    static byte[] fromBlock(BigInteger m, int blockBytes) {
+
+        if (m.signum() < 0 || m.bitLength() > blockBytes * 8) {
+            throw new IllegalArgumentException("Block does not fit in " + blockBytes + " bytes");
+        }
+        byte[] bytes = m.toByteArray();
+        byte[] block = new byte[blockBytes];
+        // toByteArray may add a leading sign byte or be shorter than the block
+        int start = bytes.length > blockBytes ? bytes.length - blockBytes : 0;
+        int length = bytes.length - start;
+        System.arraycopy(bytes, start, block, blockBytes - length, length);
+        return block;
+    }
+
+    /**
+     * Joins decrypted blocks back into the data, the reverse of split
+     *
+     * @param blocks
+     * @param blockBytes
+     * @return
+     */
+    static byte[] join(List<BigInteger> blocks, int blockBytes) {
+
+        if (blocks.isEmpty()) {
+            throw new IllegalArgumentException("No blocks to join");
+        }
+        byte[] data = new byte[blocks.size() * blockBytes];
+        int length = 0;
+        for (int i = 0; i < blocks.size(); i++) {
+            byte[] block = fromBlock(blocks.get(i), blockBytes);
+            int blockLength = dataLength(block, i + 1 == blocks.size());
+            System.arraycopy(block, 0, data, length, blockLength);
+            length += blockLength;
+        }
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * Writes the data of one decrypted block to out. The last block is written
+     * without its padding.
+     *
+     * @param out
+     * @param m
+     * @param blockBytes
+     * @param last
+     * @throws IOException
+     */
+    static void write(OutputStream out, BigInteger m, int blockBytes, boolean last) throws IOException {
+        byte[] block = fromBlock(m, blockBytes);
+        out.write(block, 0, dataLength(block, last));
+    }
+
+    private static int dataLength(byte[] block, boolean last) {
+        return last ? unpad(block) : block.length;
+    }
+
+    /**
+     * Returns the number of data bytes in the last block
+     *
+     * @param block
+     * @return
+     */
+    static int unpad(byte[] block) {
+
+        int i = block.length - 1;
+        while (i >= 0 && block[i] == 0) {
+            i--;
+        }
+        if (i < 0 || block[i] != PAD) {
+            throw new IllegalArgumentException("Bad padding in last block");
+        }
+        return i;
+    }
+}
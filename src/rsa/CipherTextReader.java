@@ -0,0 +1,143 @@
+package rsa;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+
+/**
+ * Reads cipher text blocks written by CipherTextWriter.
+ * 
+ * @author Eric
+ *
+ */
+public class CipherTextReader implements Closeable {
+
+    /**
+     * Version of the format whose blocks hold base 36 text
+     */
+    static final int LEGACY_VERSION = 1;
+
+    /**
+     * Widest block read without a key to check against, 64 KiB is a 524288
+     * bit modulus
+     */
+    static final int MAX_BLOCK_WIDTH = 1 << 16;
+
+    private final DataInputStream in;
+    private final int version;
+    private final int blockWidth;
+    private final long blockCount;
+    private final byte[] buffer;
+    private long blocksRead;
+
+    /**
+     * Reads the header. Throws an IOException if the stream is not in the
+     * binary cipher text format.
+     * 
+     * @param in
+     * @throws IOException
+     */
+    public CipherTextReader(InputStream in) throws IOException {
+        this(in, MAX_BLOCK_WIDTH);
+    }
+
+    /**
+     * Reads the header and rejects blocks wider than maxBlockWidth before
+     * allocating anything for them. Throws an IOException if the stream is not
+     * in the binary cipher text format.
+     * 
+     * @param in
+     * @param maxBlockWidth
+     *            - widest block accepted, normally the width of the key's
+     *            modulus
+     * @throws IOException
+     */
+    public CipherTextReader(InputStream in, int maxBlockWidth) throws IOException {
+
+        this.in = new DataInputStream(new BufferedInputStream(in));
+
+        if (this.in.readInt() != CipherTextWriter.MAGIC) {
+            throw new IOException("Not a binary cipher text file");
+        }
+        this.version = this.in.readUnsignedByte();
+        if (version != CipherTextWriter.VERSION && version != LEGACY_VERSION) {
+            throw new IOException("Unsupported cipher text version: " + version);
+        }
+        this.blockWidth = this.in.readInt();
+        this.blockCount = this.in.readLong();
+        if (blockWidth <= 0 || blockWidth > maxBlockWidth) {
+            throw new IOException("Bad block width: " + blockWidth);
+        }
+        this.buffer = new byte[blockWidth];
+    }
+
+    /**
+     * Returns true if the bytes start with the binary cipher text magic number
+     * 
+     * @param header
+     * @return
+     */
+    static boolean isCipherText(byte[] header) {
+        return header.length >= 4 && ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16
+                | (header[2] & 0xFF) << 8 | (header[3] & 0xFF)) == CipherTextWriter.MAGIC;
+    }
+
+    /**
+     * Reads the next block
+     * 
+     * @return BigInteger - the block, or null if there are no more blocks
+     * @throws IOException
+     */
+    public BigInteger readBlock() throws IOException {
+
+        if (blockCount != CipherTextWriter.UNKNOWN_COUNT && blocksRead == blockCount) {
+            return null;
+        }
+
+        int read = 0;
+        while (read < blockWidth) {
+            int count = in.read(buffer, read, blockWidth - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+
+        if (read == 0 && blockCount == CipherTextWriter.UNKNOWN_COUNT) {
+            return null;
+        }
+        if (read < blockWidth) {
+            throw new EOFException("Cipher text ends in the middle of block " + blocksRead);
+        }
+        blocksRead++;
+        return new BigInteger(1, buffer);
+    }
+
+    /**
+     * @return boolean - true if the blocks hold base 36 text instead of
+     *         BlockCodec blocks
+     */
+    public boolean isLegacyEncoding() {
+        return version == LEGACY_VERSION;
+    }
+
+    public int getBlockWidth() {
+        return blockWidth;
+    }
+
+    /**
+     * @return long - number of blocks, or -1 if not known
+     */
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,87 @@
+package rsa;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+
+/**
+ * Writes cipher text blocks in the binary cipher text format.
+ * 
+ * The header is the magic number "RSAC", a version byte, the width of a block
+ * in bytes (the byte length of the modulus) and the number of blocks, or -1 if
+ * the count is not known up front. Each block follows as a fixed width
+ * big-endian unsigned number.
+ * 
+ * Version 2 files hold blocks packed by BlockCodec. Version 1 files hold
+ * blocks packed as base 36 text and can still be read.
+ * 
+ * @author Eric
+ *
+ */
+public class CipherTextWriter implements Closeable {
+
+    static final int MAGIC = 0x52534143;
+    static final int VERSION = 2;
+    static final long UNKNOWN_COUNT = -1;
+
+    private final DataOutputStream out;
+    private final int blockWidth;
+    private final byte[] buffer;
+
+    /**
+     * @param out
+     * @param n
+     *            - modulus the blocks were encrypted with
+     * @param blockCount
+     *            - number of blocks that will be written, or -1 if not known
+     * @throws IOException
+     */
+    public CipherTextWriter(OutputStream out, BigInteger n, long blockCount) throws IOException {
+
+        this.out = new DataOutputStream(new BufferedOutputStream(out));
+        this.blockWidth = (n.bitLength() + 7) / 8;
+        this.buffer = new byte[blockWidth];
+
+        this.out.writeInt(MAGIC);
+        this.out.writeByte(VERSION);
+        this.out.writeInt(blockWidth);
+        this.out.writeLong(blockCount);
+    }
+
+    /**
+     * Writes a block. The block must be less than the modulus.
+     * 
+     * @param c
+     * @throws IOException
+     */
+    public void writeBlock(BigInteger c) throws IOException {
+
+        if (c.signum() < 0 || c.bitLength() > blockWidth * 8) {
+            throw new IllegalArgumentException("Block does not fit in " + blockWidth + " bytes");
+        }
+
+        byte[] bytes = c.toByteArray();
+        // toByteArray may add a leading sign byte
+        int start = bytes.length > blockWidth ? bytes.length - blockWidth : 0;
+        int length = bytes.length - start;
+
+        int pad = blockWidth - length;
+        for (int i = 0; i < pad; i++) {
+            buffer[i] = 0;
+        }
+        System.arraycopy(bytes, start, buffer, pad, length);
+        out.write(buffer);
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,42 @@
+package rsa;
+
+import java.io.PrintStream;
+
+/**
+ * Prints RSA events to the console. Used by the menu in RSA.main.
+ * 
+ * @author Eric
+ *
+ */
+public class ConsoleListener implements RSAListener {
+
+    private final PrintStream out;
+
+    public ConsoleListener() {
+        this(System.out);
+    }
+
+    public ConsoleListener(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void keysCreated(PublicKey pubKey, PrivateKey privKey, long nanos) {
+        out.println("p = " + privKey.getP());
+        out.println("q = " + privKey.getQ());
+        out.println("n = " + privKey.getN());
+        out.println("e = " + pubKey.getE());
+        out.println("d = " + privKey.getD());
+    }
+
+    @Override
+    public void keySaved(Object key, String fileName) {
+        String type = key instanceof PrivateKey ? "private" : "public";
+        out.println("Saved " + type + " key to: " + fileName);
+    }
+
+    @Override
+    public void blocksSplit(int blockBytes, int blockCount) {
+        out.println("Split text into " + blockCount + " blocks with a block size = " + blockBytes + " bytes");
+    }
+}
@@ -0,0 +1,45 @@
+package rsa;
+
+import java.math.BigInteger;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for decrypting a message of one or more blocks. Disabled by
+ * default.
+ * 
+ * @author Eric
+ *
+ */
+@Name("rsa.Decryption")
+@Label("Decryption")
+@Category("RSA")
+@Enabled(false)
+@StackTrace(false)
+class DecryptionEvent extends Event {
+
+    @Label("Modulus Bits")
+    int modulusBits;
+
+    @Label("Block Count")
+    long blockCount;
+
+    /**
+     * Ends the event and commits it if it is enabled and passes the threshold
+     * 
+     * @param n
+     * @param blocks
+     */
+    void commit(BigInteger n, long blocks) {
+        if (shouldCommit()) {
+            modulusBits = n.bitLength();
+            blockCount = blocks;
+            commit();
+        }
+    }
+}
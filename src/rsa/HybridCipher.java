@@ -0,0 +1,241 @@
+package rsa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts bulk data with AES-GCM under a key that is wrapped with RSA
+ * (RSA-KEM).
+ *
+ * A random z with 1 < z < n - 1 is encrypted with the public key, and the AES
+ * key is SHA-256 of z. The data is sealed in chunks of CHUNK_SIZE bytes. Each
+ * chunk has its own nonce (its index) and its index and a last-chunk flag are
+ * authenticated with it, so chunks can't be reordered, dropped or cut off.
+ *
+ * The format is the magic number "RSAH", a version byte, the length of the
+ * wrapped key and the wrapped key, then for each chunk a last-chunk flag byte,
+ * the length of the sealed chunk and the sealed chunk.
+ *
+ * @author Eric
+ *
+ */
+public class HybridCipher {
+
+    static final int MAGIC = 0x52534148;
+    static final int VERSION = 1;
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int TAG_BITS = 128;
+    private static final int NONCE_BYTES = 12;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+
+    private static SecureRandom r = new SecureRandom();
+
+    private HybridCipher() {
+    }
+
+    /**
+     * Encrypts everything in the input and writes it to out. Neither stream is
+     * closed.
+     *
+     * @param in
+     * @param pubKey
+     * @param out
+     * @throws IOException
+     */
+    public static void encrypt(InputStream in, PublicKey pubKey, OutputStream out) throws IOException {
+
+        BigInteger n = pubKey.getN();
+        int nBytes = (n.bitLength() + 7) / 8;
+
+        // 1 < z < n - 1
+        BigInteger z;
+        do {
+            z = new BigInteger(n.bitLength(), r);
+        } while (z.compareTo(BigInteger.ONE) <= 0 || z.compareTo(n.subtract(BigInteger.ONE)) >= 0);
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        byte[] wrappedKey = BlockCodec.fromBlock(RSA.encryptBlock(z, pubKey), nBytes);
+        // only the RSA block, the AES chunks are not RSA work
+        event.commit(n, 1);
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+        dataOut.writeInt(wrappedKey.length);
+        dataOut.write(wrappedKey);
+
+        Cipher cipher = newCipher();
+        SecretKeySpec key = deriveKey(z, nBytes);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        byte[] next = new byte[CHUNK_SIZE];
+        int length = fill(in, chunk);
+        long index = 0;
+
+        // read one chunk ahead to know which chunk is the last
+        while (true) {
+            int nextLength = length == CHUNK_SIZE ? fill(in, next) : 0;
+            boolean last = nextLength == 0;
+
+            byte[] sealed = seal(cipher, key, index, last, chunk, length);
+            dataOut.writeByte(last ? 1 : 0);
+            dataOut.writeInt(sealed.length);
+            dataOut.write(sealed);
+            if (last) {
+                break;
+            }
+
+            byte[] swap = chunk;
+            chunk = next;
+            next = swap;
+            length = nextLength;
+            index++;
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Decrypts everything written by encrypt and writes the plain text to out.
+     * Neither stream is closed. Throws an IOException if the data was changed
+     * or cut off. Chunks before the bad one have already been written to out
+     * by then.
+     *
+     * @param in
+     * @param privKey
+     * @param out
+     * @throws IOException
+     */
+    public static void decrypt(InputStream in, PrivateKey privKey, OutputStream out) throws IOException {
+
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a hybrid cipher text");
+        }
+        int version = dataIn.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported hybrid cipher text version: " + version);
+        }
+
+        BigInteger n = privKey.getN();
+        int nBytes = (n.bitLength() + 7) / 8;
+        int wrappedLength = dataIn.readInt();
+        if (wrappedLength != nBytes) {
+            throw new IOException("Wrapped key does not match the private key");
+        }
+        byte[] wrappedKey = new byte[wrappedLength];
+        dataIn.readFully(wrappedKey);
+        DecryptionEvent event = new DecryptionEvent();
+        event.begin();
+        BigInteger z = RSA.decrypt(new BigInteger(1, wrappedKey), privKey);
+        // only the RSA block, the AES chunks are not RSA work
+        event.commit(n, 1);
+
+        Cipher cipher = newCipher();
+        SecretKeySpec key = deriveKey(z, nBytes);
+        long index = 0;
+        boolean last = false;
+
+        try {
+            while (!last) {
+                last = dataIn.readUnsignedByte() == 1;
+                int sealedLength = dataIn.readInt();
+                if (sealedLength < TAG_BITS / 8 || sealedLength > CHUNK_SIZE + TAG_BITS / 8) {
+                    throw new IOException("Bad chunk length: " + sealedLength);
+                }
+                byte[] sealed = new byte[sealedLength];
+                dataIn.readFully(sealed);
+                out.write(open(cipher, key, index, last, sealed));
+                index++;
+            }
+        } catch (EOFException e) {
+            throw new IOException("Hybrid cipher text was cut off in chunk " + index, e);
+        }
+        out.flush();
+    }
+
+    private static byte[] seal(Cipher cipher, SecretKeySpec key, long index, boolean last, byte[] chunk,
+            int length) {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce(index)));
+            cipher.updateAAD(associatedData(index, last));
+            return cipher.doFinal(chunk, 0, length);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] open(Cipher cipher, SecretKeySpec key, long index, boolean last, byte[] sealed)
+            throws IOException {
+        try {
+            cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, nonce(index)));
+            cipher.updateAAD(associatedData(index, last));
+            return cipher.doFinal(sealed);
+        } catch (AEADBadTagException e) {
+            throw new IOException("Chunk " + index + " failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The AES key is SHA-256 of z, written as nBytes big-endian bytes
+     */
+    private static SecretKeySpec deriveKey(BigInteger z, int nBytes) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            return new SecretKeySpec(sha.digest(BlockCodec.fromBlock(z, nBytes)), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Every message has its own key, so the chunk index is a unique nonce
+     */
+    private static byte[] nonce(long index) {
+        return ByteBuffer.allocate(NONCE_BYTES).putLong(NONCE_BYTES - 8, index).array();
+    }
+
+    private static byte[] associatedData(long index, boolean last) {
+        return ByteBuffer.allocate(9).putLong(index).put((byte) (last ? 1 : 0)).array();
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads until the chunk is full or the input ends
+     *
+     * @return int - number of bytes read
+     */
+    private static int fill(InputStream in, byte[] chunk) throws IOException {
+        int length = 0;
+        while (length < chunk.length) {
+            int read = in.read(chunk, length, chunk.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,160 @@
+package rsa;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded LRU cache of loaded keys.
+ *
+ * Entries are keyed by the canonical path of the key file. An entry is only
+ * used while the file's modification time and length are unchanged, so a
+ * rewritten key file is loaded again. When the cache is full the least
+ * recently used key is evicted.
+ *
+ * Every caller gets its own copy of a cached key, so changing a loaded key
+ * does not change what later callers load.
+ *
+ * @author Eric
+ *
+ */
+public class KeyCache {
+
+    /**
+     * Loads a key from a file
+     */
+    public interface Loader {
+        Object load(String fileName) throws IOException;
+    }
+
+    private final int maxEntries;
+    private final Map<String, CachedKey> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    // bumped by invalidate, so a load that raced with it is not cached
+    private long invalidations;
+
+    public KeyCache(final int maxEntries) {
+
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be > 0");
+        }
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CachedKey>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedKey> eldest) {
+                if (size() > KeyCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the cached key for the file, or loads it with the
+     * loader. The file is loaded outside the lock, so two threads missing on
+     * the same file may both load it. A key loaded while the cache was
+     * invalidated is returned but not cached.
+     *
+     * @param fileName
+     * @param loader
+     * @return
+     * @throws IOException
+     */
+    public Object get(String fileName, Loader loader) throws IOException {
+
+        File file = new File(fileName);
+        String path = file.getCanonicalPath();
+        long lastModified = file.lastModified();
+        long length = file.length();
+
+        long invalidationsBefore;
+        synchronized (this) {
+            CachedKey entry = entries.get(path);
+            if (entry != null && entry.lastModified == lastModified && entry.length == length) {
+                hits++;
+                return copy(entry.key);
+            }
+            misses++;
+            invalidationsBefore = invalidations;
+        }
+
+        Object key = loader.load(fileName);
+
+        synchronized (this) {
+            if (invalidations == invalidationsBefore) {
+                entries.put(path, new CachedKey(key, lastModified, length));
+            }
+        }
+        return copy(key);
+    }
+
+    /**
+     * Copies a PublicKey or PrivateKey, other objects are returned as they
+     * are
+     */
+    private static Object copy(Object key) {
+
+        if (key instanceof PublicKey) {
+            PublicKey pubKey = (PublicKey) key;
+            return new PublicKey(pubKey.getN(), pubKey.getE());
+        }
+        if (key instanceof PrivateKey) {
+            PrivateKey privKey = (PrivateKey) key;
+            return new PrivateKey(privKey.getN(), privKey.getD(), privKey.getP(), privKey.getQ(), privKey.getDP(),
+                    privKey.getDQ(), privKey.getQInv());
+        }
+        return key;
+    }
+
+    /**
+     * Removes a file from the cache. Loads of any file that are still running
+     * are not cached.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public synchronized void invalidate(String fileName) throws IOException {
+        entries.remove(new File(fileName).getCanonicalPath());
+        invalidations++;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private static class CachedKey {
+        private final Object key;
+        private final long lastModified;
+        private final long length;
+
+        CachedKey(Object key, long lastModified, long length) {
+            this.key = key;
+            this.lastModified = lastModified;
+            this.length = length;
+        }
+    }
+}
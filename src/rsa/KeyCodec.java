@@ -0,0 +1,167 @@
+package rsa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+
+/**
+ * Reads and writes keys in the binary key format.
+ * 
+ * The format is the magic number "RSAK", a version byte and a key type byte,
+ * followed by the key's numbers. Each number is written as an int length and
+ * then its unsigned big-endian magnitude. A length of -1 stands for a missing
+ * number. Numbers longer than MAX_NUMBER_LENGTH bytes are rejected.
+ * 
+ * Public keys hold n and e. Private keys hold n, d, p, q, dP, dQ and qInv, so
+ * a loaded private key is ready for CRT decryption without any setup.
+ * 
+ * @author Eric
+ *
+ */
+public class KeyCodec {
+
+    static final int MAGIC = 0x5253414B;
+    static final int VERSION = 1;
+    static final int PUBLIC_KEY = 1;
+    static final int PRIVATE_KEY = 2;
+
+    /**
+     * Longest number read, the same limit as a cipher text block, so a bad
+     * length is rejected before anything is allocated for it
+     */
+    static final int MAX_NUMBER_LENGTH = CipherTextReader.MAX_BLOCK_WIDTH;
+
+    /**
+     * First two bytes of a file written with ObjectOutputStream
+     */
+    private static final int SERIALIZATION_MAGIC = 0xACED;
+
+    private KeyCodec() {
+    }
+
+    /**
+     * Writes a PublicKey or PrivateKey
+     * 
+     * @param key
+     * @param out
+     * @throws IOException
+     */
+    public static void write(Object key, OutputStream out) throws IOException {
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(MAGIC);
+        dataOut.writeByte(VERSION);
+
+        if (key instanceof PublicKey) {
+            PublicKey pubKey = (PublicKey) key;
+            dataOut.writeByte(PUBLIC_KEY);
+            writeNumber(dataOut, pubKey.getN());
+            writeNumber(dataOut, pubKey.getE());
+        } else if (key instanceof PrivateKey) {
+            PrivateKey privKey = (PrivateKey) key;
+            dataOut.writeByte(PRIVATE_KEY);
+            writeNumber(dataOut, privKey.getN());
+            writeNumber(dataOut, privKey.getD());
+            writeNumber(dataOut, privKey.getP());
+            writeNumber(dataOut, privKey.getQ());
+            writeNumber(dataOut, privKey.getDP());
+            writeNumber(dataOut, privKey.getDQ());
+            writeNumber(dataOut, privKey.getQInv());
+        } else {
+            throw new IllegalArgumentException("Not a key: " + key);
+        }
+        dataOut.flush();
+    }
+
+    /**
+     * Reads a key written by write
+     * 
+     * @param in
+     * @return Object - a PublicKey or PrivateKey
+     * @throws IOException
+     */
+    public static Object read(InputStream in) throws IOException {
+
+        DataInputStream dataIn = new DataInputStream(in);
+        if (dataIn.readInt() != MAGIC) {
+            throw new IOException("Not a key file");
+        }
+        int version = dataIn.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported key file version: " + version);
+        }
+
+        int type = dataIn.readUnsignedByte();
+        if (type == PUBLIC_KEY) {
+            BigInteger n = readNumber(dataIn);
+            BigInteger e = readNumber(dataIn);
+            return new PublicKey(n, e);
+        }
+        if (type == PRIVATE_KEY) {
+            BigInteger n = readNumber(dataIn);
+            BigInteger d = readNumber(dataIn);
+            BigInteger p = readNumber(dataIn);
+            BigInteger q = readNumber(dataIn);
+            BigInteger dP = readNumber(dataIn);
+            BigInteger dQ = readNumber(dataIn);
+            BigInteger qInv = readNumber(dataIn);
+            return new PrivateKey(n, d, p, q, dP, dQ, qInv);
+        }
+        throw new IOException("Unknown key type: " + type);
+    }
+
+    /**
+     * Returns true if the bytes start with the binary key magic number
+     * 
+     * @param header
+     * @return
+     */
+    static boolean isKeyFile(byte[] header) {
+        return header.length >= 4 && ((header[0] & 0xFF) << 24 | (header[1] & 0xFF) << 16
+                | (header[2] & 0xFF) << 8 | (header[3] & 0xFF)) == MAGIC;
+    }
+
+    /**
+     * Returns true if the bytes start like a Java serialization stream, the
+     * format keys were saved in before the binary key format
+     * 
+     * @param header
+     * @return
+     */
+    static boolean isSerialized(byte[] header) {
+        return header.length >= 2 && ((header[0] & 0xFF) << 8 | (header[1] & 0xFF)) == SERIALIZATION_MAGIC;
+    }
+
+    private static void writeNumber(DataOutputStream out, BigInteger number) throws IOException {
+
+        if (number == null) {
+            out.writeInt(-1);
+            return;
+        }
+        if (number.signum() < 0) {
+            throw new IllegalArgumentException("Key numbers can't be negative");
+        }
+        byte[] bytes = number.toByteArray();
+        // drop the sign byte toByteArray may add
+        int start = bytes.length > 1 && bytes[0] == 0 ? 1 : 0;
+        out.writeInt(bytes.length - start);
+        out.write(bytes, start, bytes.length - start);
+    }
+
+    private static BigInteger readNumber(DataInputStream in) throws IOException {
+
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > MAX_NUMBER_LENGTH) {
+            throw new IOException("Bad number length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new BigInteger(1, bytes);
+    }
+}
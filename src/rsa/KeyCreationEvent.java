@@ -0,0 +1,29 @@
+package rsa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for generating a key pair, including the prime search. Disabled
+ * by default.
+ * 
+ * @author Eric
+ *
+ */
+@Name("rsa.KeyCreation")
+@Label("Key Creation")
+@Category("RSA")
+@Enabled(false)
+@StackTrace(false)
+class KeyCreationEvent extends Event {
+
+    @Label("Modulus Bits")
+    int modulusBits;
+
+    @Label("Fixed Exponent")
+    boolean fixedExponent;
+}
@@ -0,0 +1,32 @@
+package rsa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for loading a key, from its file or from the key cache. Disabled
+ * by default.
+ * 
+ * @author Eric
+ *
+ */
+@Name("rsa.KeyLoad")
+@Label("Key Load")
+@Category("RSA")
+@Enabled(false)
+@StackTrace(false)
+class KeyLoadEvent extends Event {
+
+    @Label("File Name")
+    String fileName;
+
+    @Label("Key Type")
+    String keyType;
+
+    @Label("Modulus Bits")
+    int modulusBits;
+}
@@ -0,0 +1,23 @@
+package rsa;
+
+public class KeyPair {
+
+    /**
+     * A Public Key and the Private Key that belongs to it
+     */
+    private final PublicKey publicKey;
+    private final PrivateKey privateKey;
+
+    public KeyPair(PublicKey publicKey, PrivateKey privateKey) {
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    public PrivateKey getPrivateKey() {
+        return privateKey;
+    }
+}
@@ -0,0 +1,190 @@
+package rsa;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps pre-generated key pairs for each key size so callers don't have to
+ * wait for a prime search.
+ *
+ * Each size holds up to capacity key pairs. When a take leaves the size at or
+ * below the low water mark, the size is refilled on a background thread. A
+ * take on an empty size is a miss and generates the key pair on the calling
+ * thread.
+ *
+ * @author Eric
+ *
+ */
+public class KeyPairPool {
+
+    private final int capacity;
+    private final int lowWaterMark;
+    private final boolean fixedExponent;
+    private final ExecutorService executor;
+
+    private final ConcurrentMap<Integer, BlockingQueue<KeyPair>> pools = new ConcurrentHashMap<Integer, BlockingQueue<KeyPair>>();
+    private final ConcurrentMap<Integer, AtomicBoolean> refilling = new ConcurrentHashMap<Integer, AtomicBoolean>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param capacity
+     *            - key pairs kept per size
+     * @param lowWaterMark
+     *            - refill when a size has this many key pairs or fewer
+     * @param threads
+     *            - background threads used for refilling
+     * @param fixedExponent
+     *            - create keys with e = 65537
+     */
+    public KeyPairPool(int capacity, int lowWaterMark, int threads, boolean fixedExponent) {
+
+        if (capacity <= 0 || lowWaterMark < 0 || lowWaterMark >= capacity || threads <= 0) {
+            throw new IllegalArgumentException("Need capacity > lowWaterMark >= 0 and threads > 0");
+        }
+        this.capacity = capacity;
+        this.lowWaterMark = lowWaterMark;
+        this.fixedExponent = fixedExponent;
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "key-pair-pool-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts filling the pool for a key size. Throws an IllegalStateException
+     * if the pool is shut down.
+     *
+     * @param numOfDigits
+     */
+    public void prefill(int numOfDigits) {
+        refill(numOfDigits);
+    }
+
+    /**
+     * Takes a key pair from the pool, or generates one if none is ready
+     *
+     * @param numOfDigits
+     * @return
+     */
+    public KeyPair take(int numOfDigits) {
+
+        KeyPair keyPair = queue(numOfDigits).poll();
+        if (keyPair != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            keyPair = RSA.generateKeyPair(numOfDigits, fixedExponent);
+        }
+
+        if (queue(numOfDigits).size() <= lowWaterMark && !executor.isShutdown()) {
+            try {
+                refill(numOfDigits);
+            } catch (IllegalStateException e) {
+                // shut down since the check, the key pair is still good
+            }
+        }
+        return keyPair;
+    }
+
+    /**
+     * Number of key pairs ready for a key size
+     *
+     * @param numOfDigits
+     * @return
+     */
+    public int available(int numOfDigits) {
+        BlockingQueue<KeyPair> queue = pools.get(numOfDigits);
+        return queue == null ? 0 : queue.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Stops the background threads. Key pairs already in the pool can still be
+     * taken, but nothing is refilled.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private BlockingQueue<KeyPair> queue(int numOfDigits) {
+
+        BlockingQueue<KeyPair> queue = pools.get(numOfDigits);
+        if (queue == null) {
+            // refill flag first, so it exists once the queue is visible
+            refilling.putIfAbsent(numOfDigits, new AtomicBoolean());
+            pools.putIfAbsent(numOfDigits, new LinkedBlockingQueue<KeyPair>(capacity));
+            queue = pools.get(numOfDigits);
+        }
+        return queue;
+    }
+
+    /**
+     * Fills a key size up to capacity on a background thread. Only one refill
+     * per size runs at a time. Throws an IllegalStateException if the pool is
+     * shut down.
+     *
+     * @param numOfDigits
+     */
+    private void refill(final int numOfDigits) {
+
+        final BlockingQueue<KeyPair> queue = queue(numOfDigits);
+        final AtomicBoolean running = refilling.get(numOfDigits);
+        if (executor.isShutdown()) {
+            throw new IllegalStateException("Key pair pool is shut down");
+        }
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (queue.remainingCapacity() > 0 && !Thread.currentThread().isInterrupted()) {
+                            queue.offer(RSA.generateKeyPair(numOfDigits, fixedExponent));
+                        }
+                    } finally {
+                        running.set(false);
+                    }
+                    // a take may have drained the queue after the loop ended
+                    if (queue.size() <= lowWaterMark && !executor.isShutdown()) {
+                        try {
+                            refill(numOfDigits);
+                        } catch (IllegalStateException e) {
+                            // shut down since the check
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // shut down between the check above and execute
+            running.set(false);
+            throw new IllegalStateException("Key pair pool is shut down", e);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package rsa;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures an RSAServer from this machine.
+ *
+ * Each client has its own connection and sends an encrypt request, waits for
+ * it, then decrypts the result and checks it, over and over. The latency of
+ * every request is recorded in a histogram per operation. A warm-up round is
+ * run first and not recorded.
+ *
+ * @author Eric
+ *
+ */
+public class LoadGenerator {
+
+    private final int port;
+    private final String pubKeyId;
+    private final String privKeyId;
+    private final int clients;
+    private final int messageBytes;
+
+    /**
+     * @param port
+     * @param pubKeyId
+     *            - server key used to encrypt
+     * @param privKeyId
+     *            - server key used to decrypt, must match pubKeyId
+     * @param clients
+     *            - concurrent connections
+     * @param messageBytes
+     *            - size of each message
+     */
+    public LoadGenerator(int port, String pubKeyId, String privKeyId, int clients, int messageBytes) {
+
+        if (clients <= 0 || messageBytes < 0) {
+            throw new IllegalArgumentException("Need clients > 0 and messageBytes >= 0");
+        }
+        this.port = port;
+        this.pubKeyId = pubKeyId;
+        this.privKeyId = privKeyId;
+        this.clients = clients;
+        this.messageBytes = messageBytes;
+    }
+
+    /**
+     * Runs warmup and then requests round trips on every client, so clients *
+     * requests encrypt and as many decrypt requests are measured in total
+     *
+     * @param warmup
+     *            - round trips per client
+     * @param requests
+     *            - round trips per client
+     * @return
+     * @throws IOException
+     */
+    public Result run(int warmup, int requests) throws IOException {
+
+        round(warmup, new LatencyHistogram(), new LatencyHistogram());
+
+        LatencyHistogram encrypt = new LatencyHistogram();
+        LatencyHistogram decrypt = new LatencyHistogram();
+        long start = System.nanoTime();
+        round(requests, encrypt, decrypt);
+        long nanos = System.nanoTime() - start;
+
+        return new Result(clients, messageBytes, nanos, encrypt.snapshot(), decrypt.snapshot());
+    }
+
+    private void round(final int requests, final LatencyHistogram encrypt, final LatencyHistogram decrypt)
+            throws IOException {
+
+        if (requests == 0) {
+            return;
+        }
+        // clients mostly wait for the server, so thousands of them can run on virtual threads
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor(Executors.defaultThreadFactory());
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(clients);
+        for (int i = 0; i < clients; i++) {
+            final long seed = i;
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    byte[] message = new byte[messageBytes];
+                    new Random(seed).nextBytes(message);
+
+                    RSAClient client = new RSAClient(port);
+                    try {
+                        for (int j = 0; j < requests; j++) {
+                            long start = System.nanoTime();
+                            byte[] cipherText = client.encrypt(pubKeyId, message);
+                            long encrypted = System.nanoTime();
+                            byte[] plainText = client.decrypt(privKeyId, cipherText);
+                            long decrypted = System.nanoTime();
+
+                            encrypt.record(encrypted - start);
+                            decrypt.record(decrypted - encrypted);
+                            if (!Arrays.equals(message, plainText)) {
+                                throw new IOException("Round trip returned a different message");
+                            }
+                        }
+                    } finally {
+                        client.close();
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> task : executor.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running clients", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IllegalStateException("Client failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Latencies and throughput of a run
+     */
+    public static class Result {
+
+        private final int clients;
+        private final int messageBytes;
+        private final long nanos;
+        private final LatencyHistogram.Snapshot encrypt;
+        private final LatencyHistogram.Snapshot decrypt;
+
+        Result(int clients, int messageBytes, long nanos, LatencyHistogram.Snapshot encrypt,
+                LatencyHistogram.Snapshot decrypt) {
+            this.clients = clients;
+            this.messageBytes = messageBytes;
+            this.nanos = nanos;
+            this.encrypt = encrypt;
+            this.decrypt = decrypt;
+        }
+
+        public LatencyHistogram.Snapshot getEncryptLatency() {
+            return encrypt;
+        }
+
+        public LatencyHistogram.Snapshot getDecryptLatency() {
+            return decrypt;
+        }
+
+        /**
+         * Requests per second, counting encrypts and decrypts
+         *
+         * @return
+         */
+        public double getRequestsPerSecond() {
+            return (encrypt.getCount() + decrypt.getCount()) / (nanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d clients, %d byte messages, %.1f requests/s%n%s%s", clients, messageBytes,
+                    getRequestsPerSecond(), line("encrypt", encrypt), line("decrypt", decrypt));
+        }
+
+        private static String line(String name, LatencyHistogram.Snapshot latency) {
+            return String.format("%s count=%d p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus%n", name,
+                    latency.getCount(), latency.getPercentile(50) / 1e3, latency.getPercentile(99) / 1e3,
+                    latency.getPercentile(99.9) / 1e3, latency.getMax() / 1e3);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package rsa;
+
+/**
+ * Records RSA events in a MetricsRegistry. Every timed event goes into a
+ * histogram named after the operation:
+ *
+ * createKeys, encrypt.block, decrypt.block, loadKey, saveCipherText and
+ * loadCipherText.
+ *
+ * The counters keys.saved, cipherText.blocksSaved and cipherText.blocksLoaded
+ * count the rest.
+ *
+ * @author Eric
+ *
+ */
+public class MetricsListener implements RSAListener {
+
+    private final MetricsRegistry registry;
+
+    private final LatencyHistogram createKeys;
+    private final LatencyHistogram encryptBlock;
+    private final LatencyHistogram decryptBlock;
+    private final LatencyHistogram loadKey;
+    private final LatencyHistogram saveCipherText;
+    private final LatencyHistogram loadCipherText;
+
+    public MetricsListener(MetricsRegistry registry) {
+        this.registry = registry;
+        // looked up once so recording a block is a single histogram update
+        this.createKeys = registry.histogram("createKeys");
+        this.encryptBlock = registry.histogram("encrypt.block");
+        this.decryptBlock = registry.histogram("decrypt.block");
+        this.loadKey = registry.histogram("loadKey");
+        this.saveCipherText = registry.histogram("saveCipherText");
+        this.loadCipherText = registry.histogram("loadCipherText");
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public void keysCreated(PublicKey pubKey, PrivateKey privKey, long nanos) {
+        createKeys.record(nanos);
+    }
+
+    @Override
+    public void keySaved(Object key, String fileName) {
+        registry.counter("keys.saved").increment();
+    }
+
+    @Override
+    public void keyLoaded(String fileName, long nanos) {
+        loadKey.record(nanos);
+    }
+
+    @Override
+    public void blockEncrypted(int modulusBits, long nanos) {
+        encryptBlock.record(nanos);
+    }
+
+    @Override
+    public void blockDecrypted(int modulusBits, long nanos) {
+        decryptBlock.record(nanos);
+    }
+
+    @Override
+    public void cipherTextSaved(String fileName, int blockCount, long nanos) {
+        saveCipherText.record(nanos);
+        registry.counter("cipherText.blocksSaved").add(blockCount);
+    }
+
+    @Override
+    public void cipherTextLoaded(String fileName, int blockCount, long nanos) {
+        loadCipherText.record(nanos);
+        registry.counter("cipherText.blocksLoaded").add(blockCount);
+    }
+}
@@ -0,0 +1,223 @@
+package rsa;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An in-process registry of named counters and latency histograms.
+ *
+ * Counters are LongAdders and histograms are LatencyHistograms, so recording
+ * never takes a lock. Metrics are created on first use. A snapshot copies
+ * everything at once, and the registry can write its snapshot to a file on a
+ * fixed period.
+ *
+ * @author Eric
+ *
+ */
+public class MetricsRegistry {
+
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<String, LongAdder>();
+    private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<String, LatencyHistogram>();
+    private final long startNanos = System.nanoTime();
+
+    private ScheduledExecutorService dumper;
+
+    /**
+     * Returns the counter with the name, creating it if needed
+     *
+     * @param name
+     * @return
+     */
+    public LongAdder counter(String name) {
+
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            LongAdder created = new LongAdder();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the histogram with the name, creating it if needed
+     *
+     * @param name
+     * @return
+     */
+    public LatencyHistogram histogram(String name) {
+
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            LatencyHistogram created = new LatencyHistogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Copies every counter and histogram
+     *
+     * @return
+     */
+    public Snapshot snapshot() {
+
+        Map<String, Long> counterValues = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+            counterValues.put(counter.getKey(), counter.getValue().sum());
+        }
+        Map<String, LatencyHistogram.Snapshot> histogramValues = new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+            histogramValues.put(histogram.getKey(), histogram.getValue().snapshot());
+        }
+        return new Snapshot(System.nanoTime() - startNanos, counterValues, histogramValues);
+    }
+
+    /**
+     * Writes a snapshot to the file. The snapshot is written to a temporary
+     * file first and moved over the old one, so readers never see half a
+     * dump.
+     *
+     * @param fileName
+     * @throws IOException
+     */
+    public void dump(String fileName) throws IOException {
+
+        Path target = Paths.get(fileName).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(temp, snapshot().toString().getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Dumps a snapshot to the file every period on a daemon thread, replacing
+     * any earlier schedule. Failed dumps are printed and retried on the next
+     * period.
+     *
+     * @param fileName
+     * @param period
+     * @param unit
+     */
+    public synchronized void startDump(final String fileName, long period, TimeUnit unit) {
+
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "metrics-dump");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        dumper.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    dump(fileName);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Stops the periodic dump, if there is one
+     */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdownNow();
+            dumper = null;
+        }
+    }
+
+    /**
+     * A point in time copy of the registry
+     */
+    public static class Snapshot {
+
+        private final long uptimeNanos;
+        private final Map<String, Long> counters;
+        private final Map<String, LatencyHistogram.Snapshot> histograms;
+
+        Snapshot(long uptimeNanos, Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> histograms) {
+            this.uptimeNanos = uptimeNanos;
+            this.counters = Collections.unmodifiableMap(counters);
+            this.histograms = Collections.unmodifiableMap(histograms);
+        }
+
+        /**
+         * Time since the registry was created
+         *
+         * @return
+         */
+        public long getUptimeNanos() {
+            return uptimeNanos;
+        }
+
+        public Map<String, Long> getCounters() {
+            return counters;
+        }
+
+        public Map<String, LatencyHistogram.Snapshot> getHistograms() {
+            return histograms;
+        }
+
+        /**
+         * One line per counter and non-empty histogram. Rates are per second
+         * since the registry was created and latencies are in microseconds.
+         */
+        @Override
+        public String toString() {
+
+            StringWriter text = new StringWriter();
+            PrintWriter out = new PrintWriter(text);
+            double seconds = Math.max(uptimeNanos, 1) / 1e9;
+
+            out.printf("uptime=%.1fs%n", seconds);
+            for (Map.Entry<String, Long> counter : counters.entrySet()) {
+                out.printf("%s count=%d rate=%.1f/s%n", counter.getKey(), counter.getValue(),
+                        counter.getValue() / seconds);
+            }
+            for (Map.Entry<String, LatencyHistogram.Snapshot> entry : histograms.entrySet()) {
+                LatencyHistogram.Snapshot histogram = entry.getValue();
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+                out.printf("%s count=%d rate=%.1f/s mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus"
+                        + " max=%.1fus%n", entry.getKey(), histogram.getCount(), histogram.getCount() / seconds,
+                        histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3,
+                        histogram.getPercentile(90) / 1e3, histogram.getPercentile(99) / 1e3,
+                        histogram.getPercentile(99.9) / 1e3, histogram.getMax() / 1e3);
+            }
+            out.flush();
+            return text.toString();
+        }
+    }
+}
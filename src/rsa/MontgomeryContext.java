@@ -0,0 +1,245 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * Montgomery arithmetic for a single odd modulus.
+ *
+ * Numbers are kept as little-endian int[] limbs of the same length as n.
+ * The per-modulus setup, n' = -n^-1 mod 2^32 and R^2 mod n with R =
+ * 2^(32 * limbs), is done once in the constructor so the context can be
+ * reused for every block encrypted or decrypted under the same key.
+ *
+ * A context is immutable and can be shared between threads. Each call to
+ * modPow uses its own scratch arrays.
+ *
+ * This is not the fast path. RSA always uses BigInteger.modPow, which is
+ * about four times faster on HotSpot thanks to its intrinsics. The class is
+ * kept package-private for ModPowBenchmark, so the comparison can be rerun
+ * on other JVMs.
+ *
+ * @author Eric
+ *
+ */
+final class MontgomeryContext {
+
+    private static final long MASK = 0xFFFFFFFFL;
+
+    private final BigInteger modulus;
+    private final int[] n;
+    private final int nPrime;
+    private final int[] r2;
+
+    MontgomeryContext(BigInteger modulus) {
+
+        if (modulus.signum() <= 0 || !modulus.testBit(0) || modulus.equals(BigInteger.ONE)) {
+            throw new IllegalArgumentException("Modulus must be odd and greater than 1");
+        }
+        this.modulus = modulus;
+        this.n = toLimbs(modulus, limbCount(modulus));
+
+        // n' = -n^-1 mod 2^32, by Newton iteration on the lowest limb
+        int inv = n[0];
+        for (int i = 0; i < 5; i++) {
+            inv *= 2 - n[0] * inv;
+        }
+        this.nPrime = -inv;
+
+        BigInteger r = BigInteger.ONE.shiftLeft(32 * n.length);
+        this.r2 = toLimbs(r.multiply(r).mod(modulus), n.length);
+    }
+
+    BigInteger getModulus() {
+        return modulus;
+    }
+
+    /**
+     * Calculates base^exponent mod n using a fixed window.
+     *
+     * @param base
+     * @param exponent
+     *            - must not be negative
+     * @return
+     */
+    BigInteger modPow(BigInteger base, BigInteger exponent) {
+
+        if (exponent.signum() < 0) {
+            throw new ArithmeticException("Negative exponent");
+        }
+        if (exponent.signum() == 0) {
+            return BigInteger.ONE;
+        }
+
+        int k = n.length;
+        long[] t = new long[k + 2];
+        int[] x = toLimbs(base.mod(modulus), k);
+
+        // table[i] = x^i * R mod n
+        int window = windowSize(exponent.bitLength());
+        int[][] table = new int[1 << window][];
+        table[1] = montMultiply(x, r2, t);
+        for (int i = 2; i < table.length; i++) {
+            table[i] = montMultiply(table[i - 1], table[1], t);
+        }
+
+        // result is null until the first non-zero window, standing for 1
+        int[] result = null;
+        int[] scratch = new int[k];
+        int bits = exponent.bitLength();
+        // windows are aligned on multiples of the window size from the bottom
+        int top = ((bits - 1) / window) * window;
+        for (int pos = top; pos >= 0; pos -= window) {
+            if (result != null) {
+                for (int i = 0; i < window; i++) {
+                    montMultiply(result, result, t, scratch);
+                    int[] swap = result;
+                    result = scratch;
+                    scratch = swap;
+                }
+            }
+            int digit = windowDigit(exponent, pos, window);
+            if (digit != 0) {
+                if (result == null) {
+                    result = table[digit].clone();
+                } else {
+                    montMultiply(result, table[digit], t, scratch);
+                    int[] swap = result;
+                    result = scratch;
+                    scratch = swap;
+                }
+            }
+        }
+
+        // leave Montgomery form
+        int[] one = new int[k];
+        one[0] = 1;
+        return fromLimbs(montMultiply(result, one, t));
+    }
+
+    private int[] montMultiply(int[] a, int[] b, long[] t) {
+        int[] result = new int[n.length];
+        montMultiply(a, b, t, result);
+        return result;
+    }
+
+    /**
+     * Sets result = a * b * R^-1 mod n (CIOS method). t is scratch space of
+     * length limbs + 2. result may not be a or b.
+     *
+     * @param a
+     * @param b
+     * @param t
+     * @param result
+     */
+    private void montMultiply(int[] a, int[] b, long[] t, int[] result) {
+
+        int k = n.length;
+        Arrays.fill(t, 0);
+
+        for (int i = 0; i < k; i++) {
+            long bi = b[i] & MASK;
+            long carry = 0;
+            for (int j = 0; j < k; j++) {
+                long sum = t[j] + (a[j] & MASK) * bi + carry;
+                t[j] = sum & MASK;
+                carry = sum >>> 32;
+            }
+            long sum = t[k] + carry;
+            t[k] = sum & MASK;
+            t[k + 1] = sum >>> 32;
+
+            long m = ((int) t[0] * nPrime) & MASK;
+            sum = t[0] + m * (n[0] & MASK);
+            carry = sum >>> 32;
+            for (int j = 1; j < k; j++) {
+                sum = t[j] + m * (n[j] & MASK) + carry;
+                t[j - 1] = sum & MASK;
+                carry = sum >>> 32;
+            }
+            sum = t[k] + carry;
+            t[k - 1] = sum & MASK;
+            t[k] = t[k + 1] + (sum >>> 32);
+        }
+
+        for (int i = 0; i < k; i++) {
+            result[i] = (int) t[i];
+        }
+        if (t[k] != 0 || compare(result, n) >= 0) {
+            subtract(result, n);
+        }
+    }
+
+    /**
+     * Reads window bits of the exponent starting at bit pos
+     */
+    private static int windowDigit(BigInteger exponent, int pos, int window) {
+        int digit = 0;
+        for (int i = window - 1; i >= 0; i--) {
+            digit = (digit << 1) | (exponent.testBit(pos + i) ? 1 : 0);
+        }
+        return digit;
+    }
+
+    private static int windowSize(int bits) {
+        if (bits > 671) {
+            return 6;
+        }
+        if (bits > 239) {
+            return 5;
+        }
+        if (bits > 79) {
+            return 4;
+        }
+        if (bits > 23) {
+            return 3;
+        }
+        return 1;
+    }
+
+    private static int compare(int[] a, int[] b) {
+        for (int i = a.length - 1; i >= 0; i--) {
+            if (a[i] != b[i]) {
+                return (a[i] & MASK) < (b[i] & MASK) ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * a = a - b, ignoring the final borrow
+     */
+    private static void subtract(int[] a, int[] b) {
+        long borrow = 0;
+        for (int i = 0; i < a.length; i++) {
+            long diff = (a[i] & MASK) - (b[i] & MASK) - borrow;
+            a[i] = (int) diff;
+            borrow = (diff >> 32) & 1;
+        }
+    }
+
+    private static int limbCount(BigInteger value) {
+        return (value.bitLength() + 31) / 32;
+    }
+
+    private static int[] toLimbs(BigInteger value, int k) {
+        int[] limbs = new int[k];
+        byte[] bytes = value.toByteArray();
+        for (int i = 0; i < bytes.length && i / 4 < k; i++) {
+            limbs[i / 4] |= (bytes[bytes.length - 1 - i] & 0xFF) << (8 * (i % 4));
+        }
+        return limbs;
+    }
+
+    private static BigInteger fromLimbs(int[] limbs) {
+        byte[] bytes = new byte[limbs.length * 4];
+        for (int i = 0; i < limbs.length; i++) {
+            int limb = limbs[limbs.length - 1 - i];
+            bytes[4 * i] = (byte) (limb >>> 24);
+            bytes[4 * i + 1] = (byte) (limb >>> 16);
+            bytes[4 * i + 2] = (byte) (limb >>> 8);
+            bytes[4 * i + 3] = (byte) limb;
+        }
+        return new BigInteger(1, bytes);
+    }
+}
@@ -0,0 +1,389 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Searches for p and q at the same time on an executor, the common fork/join
+ * pool by default.
+ *
+ * Each prime is searched speculatively by several workers. A worker picks a
+ * random odd start, marks off multiples of the first few thousand small primes
+ * over a window and runs Miller-Rabin only on the survivors. The first worker
+ * to find a prime publishes it and the others stop before testing their next
+ * candidate. Each worker draws its starts from a random source of its own.
+ * Without an executor p and q are searched one after the other on the calling
+ * thread, so a seeded Random always gives the same primes.
+ *
+ * Each search is recorded as a PrimeSearchEvent. Candidates are only counted
+ * while the event is enabled.
+ *
+ * @author Eric
+ *
+ */
+final class PrimeSearch {
+
+    private static final int CERTAINTY = 100;
+
+    /**
+     * Odd primes used to sieve a window of candidates, and the number of odd
+     * candidates in a window
+     */
+    private static final int[] SMALL_PRIMES = smallPrimes(2048);
+    private static final int SIEVE_WINDOW = 4096;
+
+    /**
+     * Products of consecutive pairs of SMALL_PRIMES. Each is below 2^31, so a
+     * remainder times 2^32 plus a 32 bit word still fits in a long.
+     */
+    private static final long[] PRIME_PAIRS = primePairs(SMALL_PRIMES);
+
+    /**
+     * Candidates below this bit length are tested directly, since the sieve
+     * would mark the small primes themselves as composite
+     */
+    private static final int MIN_SIEVE_BITS = 32;
+
+    private PrimeSearch() {
+    }
+
+    /**
+     * Finds two distinct primes with the given bit length on the common
+     * fork/join pool. If e is not null, p - 1 and q - 1 are relatively prime
+     * to e.
+     *
+     * @param bitLength
+     * @param e
+     * @param r
+     * @return BigInteger[] - {p, q}
+     */
+    static BigInteger[] findPrimePair(int bitLength, BigInteger e, Random r) {
+        return findPrimePair(bitLength, e, r, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds two distinct primes with the given bit length. If e is not null,
+     * p - 1 and q - 1 are relatively prime to e.
+     *
+     * @param bitLength
+     * @param e
+     * @param r
+     * @param executor
+     *            - runs the workers, or null to search on the calling thread
+     * @return BigInteger[] - {p, q}
+     */
+    static BigInteger[] findPrimePair(int bitLength, BigInteger e, Random r, ExecutorService executor) {
+
+        PrimeSearchEvent event = new PrimeSearchEvent();
+        event.begin();
+        LongAdder tried = event.isEnabled() ? new LongAdder() : null;
+
+        BigInteger[] primes;
+        if (executor == null) {
+            primes = new BigInteger[] { search(bitLength, e, r, null, tried), search(bitLength, e, r, null, tried) };
+            while (primes[0].equals(primes[1])) {
+                primes[1] = search(bitLength, e, r, null, tried);
+            }
+        } else {
+            int workersPerPrime = Math.max(1, parallelism(executor) / 2);
+            primes = searchConcurrently(bitLength, e, r, executor, workersPerPrime, 2, tried);
+            while (primes[0].equals(primes[1])) {
+                primes[1] = searchConcurrently(bitLength, e, r, executor, workersPerPrime, 1, tried)[0];
+            }
+        }
+
+        if (event.shouldCommit()) {
+            event.bitLength = bitLength;
+            // the recording may have started during the search
+            event.candidatesTried = tried == null ? 0 : tried.sum();
+            event.fixedExponent = e != null;
+            event.commit();
+        }
+        return primes;
+    }
+
+    /**
+     * Searches for count primes at once, with workersPerPrime speculative
+     * workers each
+     */
+    private static BigInteger[] searchConcurrently(final int bitLength, final BigInteger e, Random r,
+            ExecutorService executor, int workersPerPrime, int count, final LongAdder tried) {
+
+        List<AtomicReference<BigInteger>> found = new ArrayList<AtomicReference<BigInteger>>(count);
+        for (int i = 0; i < count; i++) {
+            found.add(new AtomicReference<BigInteger>());
+        }
+
+        // interleaved, so every prime gets workers even on a small executor
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>(count * workersPerPrime);
+        for (int w = 0; w < workersPerPrime; w++) {
+            for (final AtomicReference<BigInteger> prime : found) {
+                final Random workerRandom = workerRandom(r);
+                workers.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        search(bitLength, e, workerRandom, prime, tried);
+                        return null;
+                    }
+                });
+            }
+        }
+
+        try {
+            for (Future<Void> worker : executor.invokeAll(workers)) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while searching for primes", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Prime search failed", ex.getCause());
+        }
+
+        BigInteger[] primes = new BigInteger[count];
+        for (int i = 0; i < count; i++) {
+            primes[i] = found.get(i).get();
+        }
+        return primes;
+    }
+
+    /**
+     * Searches windows of candidates until it finds a prime, or until another
+     * worker publishes one in found. Without found it searches until it finds
+     * one.
+     *
+     * @return BigInteger - the prime, or null if another worker found one
+     */
+    private static BigInteger search(int bitLength, BigInteger e, Random r, AtomicReference<BigInteger> found,
+            LongAdder tried) {
+
+        while (found == null || found.get() == null) {
+            BigInteger prime = bitLength < MIN_SIEVE_BITS ? searchDirect(bitLength, e, r, found, tried)
+                    : searchWindow(bitLength, e, r, found, tried);
+            if (prime != null) {
+                if (found == null) {
+                    return prime;
+                }
+                found.compareAndSet(null, prime);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A random source of its own for a worker, so the workers don't contend
+     * on r. A SecureRandom is replaced by a DRBG instance, which keeps its own
+     * state and seeds itself, unlike NativePRNG whose instances all share one
+     * lock. Any other Random is split by seeding a new one from it.
+     */
+    private static Random workerRandom(Random r) {
+
+        if (!(r instanceof SecureRandom)) {
+            return new Random(r.nextLong());
+        }
+        try {
+            return SecureRandom.getInstance("DRBG");
+        } catch (NoSuchAlgorithmException ex) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * Threads the executor can run at once, at most the number of cores
+     */
+    private static int parallelism(ExecutorService executor) {
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        if (executor instanceof ForkJoinPool) {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        if (executor instanceof ThreadPoolExecutor) {
+            return Math.min(((ThreadPoolExecutor) executor).getMaximumPoolSize(), cores);
+        }
+        return cores;
+    }
+
+    /**
+     * Sieves the odd numbers start, start + 2, ... start + 2 * (SIEVE_WINDOW -
+     * 1) from a random odd start, then runs Miller-Rabin on the survivors.
+     * Returns null if the window holds no prime or another worker finished
+     * first.
+     *
+     * @param bitLength
+     * @param e
+     * @param r
+     * @param found
+     * @param tried
+     *            - counts the candidates tested, may be null
+     * @return
+     */
+    static BigInteger searchWindow(int bitLength, BigInteger e, Random r, AtomicReference<BigInteger> found,
+            LongAdder tried) {
+
+        BigInteger start = nextCandidate(bitLength, r);
+        boolean[] composite = new boolean[SIEVE_WINDOW];
+        int[] residues = smallPrimeResidues(start);
+
+        for (int j = 0; j < SMALL_PRIMES.length; j++) {
+            int prime = SMALL_PRIMES[j];
+            // first index i with start + 2i = 0 mod prime
+            int rem = residues[j];
+            int offset = rem == 0 ? 0 : prime - rem;
+            int i = (offset & 1) == 0 ? offset / 2 : (offset + prime) / 2;
+            for (; i < SIEVE_WINDOW; i += prime) {
+                composite[i] = true;
+            }
+        }
+
+        for (int i = 0; i < SIEVE_WINDOW; i++) {
+            if (found != null && found.get() != null) {
+                return null;
+            }
+            if (composite[i]) {
+                continue;
+            }
+            BigInteger candidate = start.add(BigInteger.valueOf(2L * i));
+            if (candidate.bitLength() != bitLength) {
+                return null;
+            }
+            if (tried != null) {
+                tried.increment();
+            }
+            if (isPrime(candidate, e)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests random candidates without a sieve. Used for small bit lengths.
+     *
+     * @param bitLength
+     * @param e
+     * @param r
+     * @param found
+     * @param tried
+     *            - counts the candidates tested, may be null
+     * @return
+     */
+    static BigInteger searchDirect(int bitLength, BigInteger e, Random r, AtomicReference<BigInteger> found,
+            LongAdder tried) {
+
+        while (found == null || found.get() == null) {
+            BigInteger candidate = nextCandidate(bitLength, r);
+            if (tried != null) {
+                tried.increment();
+            }
+            if (isPrime(candidate, e)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns n mod each of SMALL_PRIMES. n is reduced by each PRIME_PAIRS
+     * product one 32 bit word at a time with long arithmetic, and the result
+     * by the two primes, instead of a BigInteger division per prime.
+     *
+     * @param n
+     * @return
+     */
+    static int[] smallPrimeResidues(BigInteger n) {
+
+        // the magnitude of n as big-endian 32 bit words
+        byte[] bytes = n.toByteArray();
+        int[] words = new int[(bytes.length + 3) / 4];
+        int pad = words.length * 4 - bytes.length;
+        for (int i = 0; i < bytes.length; i++) {
+            int w = (i + pad) >> 2;
+            words[w] = words[w] << 8 | (bytes[i] & 0xFF);
+        }
+
+        int[] residues = new int[SMALL_PRIMES.length];
+        for (int k = 0; k < PRIME_PAIRS.length; k++) {
+            long product = PRIME_PAIRS[k];
+            long rem = 0;
+            for (int word : words) {
+                rem = (rem << 32 | (word & 0xFFFFFFFFL)) % product;
+            }
+            residues[2 * k] = (int) (rem % SMALL_PRIMES[2 * k]);
+            residues[2 * k + 1] = (int) (rem % SMALL_PRIMES[2 * k + 1]);
+        }
+        return residues;
+    }
+
+    /**
+     * Returns a random odd number with exactly bitLength bits
+     *
+     * @param bitLength
+     * @param r
+     * @return
+     */
+    private static BigInteger nextCandidate(int bitLength, Random r) {
+        return new BigInteger(bitLength, r).setBit(bitLength - 1).setBit(0);
+    }
+
+    /**
+     * Runs Miller-Rabin on a candidate, after checking that candidate - 1 is
+     * relatively prime to e.
+     *
+     * @param candidate
+     * @param e
+     * @return
+     */
+    private static boolean isPrime(BigInteger candidate, BigInteger e) {
+
+        if (e != null && !candidate.subtract(BigInteger.ONE).gcd(e).equals(BigInteger.ONE)) {
+            return false;
+        }
+        return candidate.isProbablePrime(CERTAINTY);
+    }
+
+    private static long[] primePairs(int[] primes) {
+
+        long[] pairs = new long[primes.length / 2];
+        for (int k = 0; k < pairs.length; k++) {
+            pairs[k] = (long) primes[2 * k] * primes[2 * k + 1];
+        }
+        return pairs;
+    }
+
+    /**
+     * Returns the first count odd primes
+     *
+     * @param count
+     * @return
+     */
+    private static int[] smallPrimes(int count) {
+
+        int[] primes = new int[count];
+        int found = 0;
+        for (int i = 3; found < count; i += 2) {
+            boolean prime = true;
+            for (int j = 0; j < found && primes[j] * primes[j] <= i; j++) {
+                if (i % primes[j] == 0) {
+                    prime = false;
+                    break;
+                }
+            }
+            if (prime) {
+                primes[found++] = i;
+            }
+        }
+        return primes;
+    }
+}
@@ -0,0 +1,37 @@
+package rsa;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JFR event for the search for p and q. Disabled by default, enable it with
+ * e.g. -XX:StartFlightRecording:settings=profile,+rsa.PrimeSearch#enabled=true
+ * or in a custom .jfc file.
+ * 
+ * @author Eric
+ *
+ */
+@Name("rsa.PrimeSearch")
+@Label("Prime Search")
+@Category("RSA")
+@Description("Search for the two primes of a key")
+@Enabled(false)
+@StackTrace(false)
+class PrimeSearchEvent extends Event {
+
+    @Label("Bit Length")
+    @Description("Bit length of each prime")
+    int bitLength;
+
+    @Label("Candidates Tried")
+    @Description("Candidates that survived the sieve and were tested with Miller-Rabin")
+    long candidatesTried;
+
+    @Label("Fixed Exponent")
+    boolean fixedExponent;
+}
@@ -5,15 +5,35 @@ import java.math.BigInteger;
 public class PrivateKey implements java.io.Serializable {
     /**
      * Represents a Private Key
+     * 
+     * dP, dQ and qInv are the CRT parameters. They are computed when the key
+     * is created, or on first use for keys saved without them.
      */
     private static final long serialVersionUID = 1L;
     private BigInteger n, d, p, q;
+    private BigInteger dP, dQ, qInv;
 
     public PrivateKey(BigInteger n, BigInteger d, BigInteger p, BigInteger q) {
         this.setN(n);
         this.setD(d);
         this.setP(p);
         this.setQ(q);
+        this.computeCRTParams();
+    }
+
+    /**
+     * Creates a key with CRT parameters that were already computed, e.g. when
+     * loading a saved key.
+     */
+    public PrivateKey(BigInteger n, BigInteger d, BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ,
+            BigInteger qInv) {
+        this.setN(n);
+        this.setD(d);
+        this.setP(p);
+        this.setQ(q);
+        this.dP = dP;
+        this.dQ = dQ;
+        this.qInv = qInv;
     }
 
     public BigInteger getN() {
@@ -30,6 +50,7 @@ public class PrivateKey implements java.io.Serializable {
 
     public void setD(BigInteger d) {
         this.d = d;
+        this.clearCRTParams();
     }
 
     public BigInteger getP() {
@@ -38,6 +59,7 @@ public class PrivateKey implements java.io.Serializable {
 
     public void setP(BigInteger p) {
         this.p = p;
+        this.clearCRTParams();
     }
 
     public BigInteger getQ() {
@@ -46,5 +68,57 @@ public class PrivateKey implements java.io.Serializable {
 
     public void setQ(BigInteger q) {
         this.q = q;
+        this.clearCRTParams();
+    }
+
+    /**
+     * d mod (p - 1)
+     * 
+     * @return
+     */
+    public BigInteger getDP() {
+        if (dP == null) {
+            computeCRTParams();
+        }
+        return dP;
+    }
+
+    /**
+     * d mod (q - 1)
+     * 
+     * @return
+     */
+    public BigInteger getDQ() {
+        if (dQ == null) {
+            computeCRTParams();
+        }
+        return dQ;
+    }
+
+    /**
+     * q^-1 mod p
+     * 
+     * @return
+     */
+    public BigInteger getQInv() {
+        if (qInv == null) {
+            computeCRTParams();
+        }
+        return qInv;
+    }
+
+    private void computeCRTParams() {
+        if (d == null || p == null || q == null) {
+            return;
+        }
+        dP = d.mod(p.subtract(BigInteger.ONE));
+        dQ = d.mod(q.subtract(BigInteger.ONE));
+        qInv = q.modInverse(p);
+    }
+
+    private void clearCRTParams() {
+        dP = null;
+        dQ = null;
+        qInv = null;
     }
 }
@@ -1,19 +1,28 @@
 package rsa;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.PrintWriter;
-import java.io.Serializable;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * An RSA Encryption/Decryption program. Users can create public and private
@@ -32,7 +41,48 @@ public class RSA {
     private static SecureRandom r = new SecureRandom();
 
     /**
-     * Creates a private and public key.
+     * Public exponent used when keys are created with a fixed exponent
+     */
+    public static final BigInteger PUBLIC_EXPONENT = BigInteger.valueOf(65537);
+
+    /**
+     * Loaded keys, keyed by file path and modification time
+     */
+    private static final KeyCache keyCache = new KeyCache(64);
+    /**
+     * Receives events from the core methods. Does nothing unless set. Volatile
+     * because it can be swapped while worker threads are encrypting, e.g. by
+     * the bench command and the self-test menu option.
+     */
+    private static volatile RSAListener listener = RSAListener.NONE;
+
+    /**
+     * Encrypts or decrypts one block
+     */
+    interface BlockOperation {
+        BigInteger apply(BigInteger block);
+    }
+
+    private static final KeyCache.Loader KEY_FILE_LOADER = new KeyCache.Loader() {
+        @Override
+        public Object load(String fileName) throws IOException {
+            return readKey(fileName);
+        }
+    };
+
+    /**
+     * Sets the listener that receives events from the core methods. Threads
+     * already running see the new listener from their next event; null
+     * restores the default listener, which does nothing.
+     * 
+     * @param rsaListener
+     */
+    public static void setListener(RSAListener rsaListener) {
+        listener = rsaListener == null ? RSAListener.NONE : rsaListener;
+    }
+
+    /**
+     * Creates a private and public key with a random public exponent.
      * 
      * @param numOfDigits
      * @param pubFileName
@@ -40,38 +90,89 @@ public class RSA {
      * @throws IOException
      */
     public static void createKeys(int numOfDigits, String pubFileName, String privFileName) throws IOException {
+        createKeys(numOfDigits, pubFileName, privFileName, false);
+    }
+
+    /**
+     * Creates a private and public key. If fixedExponent is true the public
+     * exponent is 65537, which makes encryption much cheaper than with a
+     * random exponent as wide as the primes.
+     * 
+     * @param numOfDigits
+     * @param pubFileName
+     * @param privFileName
+     * @param fixedExponent
+     * @throws IOException
+     */
+    public static void createKeys(int numOfDigits, String pubFileName, String privFileName, boolean fixedExponent)
+            throws IOException {
+
+        KeyPair keyPair = generateKeyPair(numOfDigits, fixedExponent);
+        saveKey(keyPair.getPublicKey(), pubFileName);
+        saveKey(keyPair.getPrivateKey(), privFileName);
+    }
+
+    /**
+     * Generates a public and private key without saving them.
+     * 
+     * @param numOfDigits
+     * @param fixedExponent
+     * @return
+     */
+    public static KeyPair generateKeyPair(int numOfDigits, boolean fixedExponent) {
+        return generateKeyPair(numOfDigits, fixedExponent, r, ForkJoinPool.commonPool(), listener);
+    }
+
+    /**
+     * Generates a public and private key with the given random source,
+     * searches for the primes on executor and reports the keys to
+     * rsaListener. Used by RSAEngine, which has its own of each. With a null
+     * executor the primes are searched on the calling thread, and a seeded
+     * random always gives the same keys.
+     * 
+     * @param numOfDigits
+     * @param fixedExponent
+     * @param random
+     * @param executor
+     * @param rsaListener
+     * @return
+     */
+    static KeyPair generateKeyPair(int numOfDigits, boolean fixedExponent, Random random, ExecutorService executor,
+            RSAListener rsaListener) {
 
-        System.out.println("Generating primes and creating keys...");
         // Number of digits has to be greater than 1
         if (numOfDigits <= 1) {
             numOfDigits = 2;
         }
         int bitLength = (int) (numOfDigits * (Math.log(10) / Math.log(2)));
+        long start = System.nanoTime();
+        KeyCreationEvent event = new KeyCreationEvent();
+        event.begin();
 
-        // calculate p and q
-        BigInteger p = new BigInteger(bitLength, 1, r);
-        BigInteger q = new BigInteger(bitLength, 1, r);
-        while (p.equals(q)) {
-            q = new BigInteger(bitLength, 1, r);
-        }
-        System.out.println("p = " + p);
-        System.out.println("q = " + q);
+        // calculate p and q, in parallel on the executor
+        BigInteger[] primes = PrimeSearch.findPrimePair(bitLength, fixedExponent ? PUBLIC_EXPONENT : null, random,
+                executor);
+        BigInteger p = primes[0];
+        BigInteger q = primes[1];
 
         // calculate n (modulus)
         BigInteger n = p.multiply(q);
-        System.out.println("n = " + n);
 
         // calculate phi
         BigInteger pMin1 = p.subtract(BigInteger.ONE);// Q minus 1
         BigInteger qMin1 = q.subtract(BigInteger.ONE);// P minus 1
         BigInteger phi = pMin1.multiply(qMin1);
-        System.out.println("phi = " + phi);
 
         // create keys
-        BigInteger e = createPublicKey(n, phi, bitLength, pubFileName);
-        System.out.println("e = " + e);
-        BigInteger d = createPrivateKey(p, q, n, e, phi, privFileName);
-        System.out.println("d = " + d);
+        PublicKey pubKey = createPublicKey(n, phi, bitLength, fixedExponent, random);
+        PrivateKey privKey = createPrivateKey(p, q, n, pubKey.getE(), phi);
+        rsaListener.keysCreated(pubKey, privKey, System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.modulusBits = n.bitLength();
+            event.fixedExponent = fixedExponent;
+            event.commit();
+        }
+        return new KeyPair(pubKey, privKey);
     }
 
     /**
@@ -80,24 +181,28 @@ public class RSA {
      * @param n
      * @param phi
      * @param bitLength
-     * @param pubFileName
-     * @return BigInteger - e
-     * @throws IOException
+     * @param fixedExponent
+     * @param random
+     * @return
      */
-    private static BigInteger createPublicKey(BigInteger n, BigInteger phi, int bitLength, String pubFileName)
-            throws IOException {
-
-        System.out.println("Creating public key and saving to: " + pubFileName);
-        // calculates the public key, must be relatively prime to phi
-        BigInteger e = new BigInteger(bitLength, 1, r);
-
-        // Test if GCD = 1
-        while (e.gcd(phi).compareTo(BigInteger.ONE) != 0) {
-            e = new BigInteger(bitLength, 1, r);
+    private static PublicKey createPublicKey(BigInteger n, BigInteger phi, int bitLength, boolean fixedExponent,
+            Random random) {
+
+        BigInteger e;
+        if (fixedExponent) {
+            // p and q were chosen so that 65537 is relatively prime to phi
+            e = PUBLIC_EXPONENT;
+        } else {
+            // calculates the public key, must be relatively prime to phi
+            e = new BigInteger(bitLength, 1, random);
+
+            // Test if GCD = 1
+            while (e.gcd(phi).compareTo(BigInteger.ONE) != 0) {
+                e = new BigInteger(bitLength, 1, random);
+            }
         }
 
-        saveKey(new PublicKey(n, e), pubFileName);
-        return e;
+        return new PublicKey(n, e);
     }
 
     /**
@@ -108,94 +213,202 @@ public class RSA {
      * @param n
      * @param e
      * @param phi
-     * @param privFileName
-     * @return BigInteger - d
-     * @throws IOException
+     * @return
      */
-    private static BigInteger createPrivateKey(BigInteger p, BigInteger q, BigInteger n, BigInteger e, BigInteger phi,
-            String privFileName) throws IOException {
+    private static PrivateKey createPrivateKey(BigInteger p, BigInteger q, BigInteger n, BigInteger e,
+            BigInteger phi) {
 
-        System.out.println("Creating private key and saving to: " + privFileName);
         BigInteger d = e.modInverse(phi);
-        saveKey(new PrivateKey(n, d, p, q), privFileName);
-        return d;
+        return new PrivateKey(n, d, p, q);
     }
 
     /**
-     * Encrypts the text. If the text is >= modulus, the text needs to be split
-     * into blocks and encrypted separately.
+     * Encrypts the text. The text is encoded as UTF-8 and split into blocks
+     * that are < modulus, which are encrypted separately.
      * 
      * @param plainText
      * @param pubKey
      * @return
      */
     public static List<BigInteger> encrypt(String plainText, PublicKey pubKey) {
+        return encrypt(plainText.getBytes(StandardCharsets.UTF_8), pubKey);
+    }
+
+    /**
+     * Encrypts the bytes. They are split into blocks that are < modulus, which
+     * are encrypted separately.
+     * 
+     * @param plainText
+     * @param pubKey
+     * @return
+     */
+    public static List<BigInteger> encrypt(byte[] plainText, PublicKey pubKey) {
 
-        System.out.println("Encrypting... plain text: " + plainText);
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        List<BigInteger> plainTextInBlocks = splitIntoBlocks(plainText, pubKey.getN());
+        List<BigInteger> cipherTextInBlocks = processBlocks(plainTextInBlocks, encryption(pubKey), null);
 
-        BigInteger n = pubKey.getN();
-        BigInteger e = pubKey.getE();
+        event.commit(pubKey.getN(), cipherTextInBlocks.size());
+        return cipherTextInBlocks;
 
-        List<String> plainTextInBlocks = splitTextIntoBlocks(plainText, n);
-        List<BigInteger> cipherTextInBlocks = new ArrayList<BigInteger>();
+    }
 
-        for (String textBlock : plainTextInBlocks) {
-            BigInteger text = new BigInteger(textBlock, 36);
-            BigInteger c = text.modPow(e, n);
-            cipherTextInBlocks.add(c);
-        }
+    /**
+     * Encrypts the text like encrypt(String, PublicKey), but encrypts the
+     * blocks at the same time on the executor. The cipher blocks are returned
+     * in the same order as the text blocks. If executor is null the common
+     * fork/join pool is used.
+     * 
+     * @param plainText
+     * @param pubKey
+     * @param executor
+     * @return
+     */
+    public static List<BigInteger> encrypt(String plainText, PublicKey pubKey, ExecutorService executor) {
+        return encrypt(plainText.getBytes(StandardCharsets.UTF_8), pubKey, executor);
+    }
 
+    /**
+     * Encrypts the bytes like encrypt(byte[], PublicKey), but encrypts the
+     * blocks at the same time on the executor. If executor is null the common
+     * fork/join pool is used.
+     * 
+     * @param plainText
+     * @param pubKey
+     * @param executor
+     * @return
+     */
+    public static List<BigInteger> encrypt(byte[] plainText, final PublicKey pubKey, ExecutorService executor) {
+
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        List<BigInteger> plainTextInBlocks = splitIntoBlocks(plainText, pubKey.getN());
+        List<BigInteger> cipherTextInBlocks = processBlocks(plainTextInBlocks, encryption(pubKey),
+                executor == null ? ForkJoinPool.commonPool() : executor);
+        event.commit(pubKey.getN(), cipherTextInBlocks.size());
         return cipherTextInBlocks;
-
     }
 
     /**
-     * Calculates and returns the block size for splitting the plain text when
-     * the text >= modulus.
+     * Encrypts a single block
      * 
-     * @param n
+     * @param m
+     * @param pubKey
      * @return
      */
-    private static int getBlockSize(BigInteger n) {
+    static BigInteger encryptBlock(BigInteger m, PublicKey pubKey) {
 
-        // Subtract 1 from bit length to ensure text block < modulus
-        int nBitLength = n.bitLength() - 1;
-        double alphaNumericBitLength = Math.ceil(Math.log(36) / Math.log(2));
-        return (int) Math.floor(nBitLength / alphaNumericBitLength);
+        BigInteger n = pubKey.getN();
+        // read once, and only time the block when someone listens
+        RSAListener rsaListener = listener;
+        if (rsaListener == RSAListener.NONE) {
+            return m.modPow(pubKey.getE(), n);
+        }
+        long start = System.nanoTime();
+        BigInteger c = m.modPow(pubKey.getE(), n);
+        rsaListener.blockEncrypted(n.bitLength(), System.nanoTime() - start);
+        return c;
+    }
+
+    private static BlockOperation encryption(final PublicKey pubKey) {
+        return new BlockOperation() {
+            @Override
+            public BigInteger apply(BigInteger m) {
+                return encryptBlock(m, pubKey);
+            }
+        };
+    }
+
+    private static BlockOperation decryption(final PrivateKey privKey) {
+        return new BlockOperation() {
+            @Override
+            public BigInteger apply(BigInteger c) {
+                return decrypt(c, privKey);
+            }
+        };
     }
 
     /**
-     * Splits the text into blocks based on the block size
+     * Applies the operation to every block and returns the results in the
+     * order of the blocks. The blocks are done at the same time on the
+     * executor, or one after the other on the calling thread if it is null.
      * 
-     * @param plainText
-     * @param n
+     * @param blocks
+     * @param operation
+     * @param executor
      * @return
      */
-    private static List<String> splitTextIntoBlocks(String plainText, BigInteger n) {
+    static List<BigInteger> processBlocks(List<BigInteger> blocks, final BlockOperation operation,
+            ExecutorService executor) {
 
-        List<String> plainTextInBlocks = new ArrayList<String>();
-        int blockSize = getBlockSize(n);
+        if (executor == null) {
+            List<BigInteger> results = new ArrayList<BigInteger>(blocks.size());
+            for (BigInteger block : blocks) {
+                results.add(operation.apply(block));
+            }
+            return results;
+        }
 
-        // block size must be > 0
-        blockSize = blockSize > 0 ? blockSize : 1;
+        List<Callable<BigInteger>> tasks = new ArrayList<Callable<BigInteger>>(blocks.size());
+        for (final BigInteger block : blocks) {
+            tasks.add(new Callable<BigInteger>() {
+                @Override
+                public BigInteger call() {
+                    return operation.apply(block);
+                }
+            });
+        }
+        return invokeInOrder(tasks, executor);
+    }
 
-        System.out.println("Splitting text into blocks with a block size = " + blockSize);
+    /**
+     * Runs the tasks on the executor and returns their results in the order
+     * of the tasks.
+     * 
+     * @param tasks
+     * @param executor
+     * @return
+     */
+    static <T> List<T> invokeInOrder(List<Callable<T>> tasks, ExecutorService executor) {
 
-        for (int i = 0; i < plainText.length(); i += blockSize) {
-            int end = i + blockSize;
-            end = end > plainText.length() ? plainText.length() : end;
+        if (executor == null) {
+            executor = ForkJoinPool.commonPool();
+        }
 
-            String blockedText = plainText.substring(i, end);
-            plainTextInBlocks.add(blockedText);
+        List<T> results = new ArrayList<T>(tasks.size());
+        try {
+            for (Future<T> future : executor.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for blocks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Block failed", e.getCause());
         }
+        return results;
+    }
 
-        System.out.println("Blocked Text: " + plainTextInBlocks);
+    /**
+     * Splits the bytes into padded blocks of floor((bitLength(n) - 1) / 8)
+     * bytes each
+     * 
+     * @param plainText
+     * @param n
+     * @return
+     */
+    static List<BigInteger> splitIntoBlocks(byte[] plainText, BigInteger n) {
+
+        List<BigInteger> plainTextInBlocks = BlockCodec.split(plainText, n);
+        listener.blocksSplit(BlockCodec.blockBytes(n), plainTextInBlocks.size());
 
         return plainTextInBlocks;
     }
 
     /**
-     * Decrypt the encrypted Text
+     * Decrypt the encrypted Text. Uses the Chinese Remainder Theorem when the
+     * private key carries p and q, otherwise falls back to c^d mod n.
      * 
      * @param c
      * @param privKey
@@ -203,34 +416,147 @@ public class RSA {
      */
     public static BigInteger decrypt(BigInteger c, PrivateKey privKey) {
 
-        BigInteger d = privKey.getD();
         BigInteger n = privKey.getN();
-        BigInteger text = c.modPow(d, n);
+        // read once, and only time the block when someone listens
+        RSAListener rsaListener = listener;
+        boolean timed = rsaListener != RSAListener.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        BigInteger text;
+        if (privKey.getP() != null && privKey.getQ() != null) {
+            text = decryptCRT(c, privKey.getP(), privKey.getQ(), privKey.getDP(), privKey.getDQ(),
+                    privKey.getQInv());
+        } else {
+            text = c.modPow(privKey.getD(), n);
+        }
+
+        if (timed) {
+            rsaListener.blockDecrypted(n.bitLength(), System.nanoTime() - start);
+        }
+        return text;
+
+    }
+
+    /**
+     * Decrypt the encrypted Text using the Chinese Remainder Theorem. Two
+     * exponentiations with half size moduli and exponents are done and the
+     * results are combined with Garner's formula.
+     * 
+     * @param c
+     * @param p
+     * @param q
+     * @param dP
+     * @param dQ
+     * @param qInv
+     * @return
+     */
+    static BigInteger decryptCRT(BigInteger c, BigInteger p, BigInteger q, BigInteger dP, BigInteger dQ,
+            BigInteger qInv) {
+
+        // m1 = c^dP mod p, m2 = c^dQ mod q
+        BigInteger m1 = c.mod(p).modPow(dP, p);
+        BigInteger m2 = c.mod(q).modPow(dQ, q);
+
+        // h = qInv * (m1 - m2) mod p, m = m2 + h * q
+        BigInteger h = qInv.multiply(m1.subtract(m2)).mod(p);
+        BigInteger text = m2.add(h.multiply(q));
         return text;
+    }
+
+    /**
+     * Decrypts all cipher blocks on the executor and returns the plain text
+     * bytes. If executor is null the common fork/join pool is used.
+     * 
+     * @param cipherTextInBlocks
+     * @param privKey
+     * @param executor
+     * @return
+     */
+    public static byte[] decryptAll(List<BigInteger> cipherTextInBlocks, PrivateKey privKey,
+            ExecutorService executor) {
 
+        ByteArrayOutputStream plainText = new ByteArrayOutputStream();
+        try {
+            decryptAll(cipherTextInBlocks, privKey, executor, plainText);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new IllegalStateException(e);
+        }
+        return plainText.toByteArray();
     }
 
     /**
-     * Save the encrypted text
+     * Decrypts all cipher blocks on the executor and writes the plain text to
+     * out. Blocks are decrypted concurrently and written in their original
+     * order once all of them are done. If executor is null the common
+     * fork/join pool is used. Throws an IllegalArgumentException if there are
+     * no blocks, since every message has at least one padded block.
      * 
      * @param cipherTextInBlocks
-     * @param saveCipherFile
+     * @param privKey
+     * @param executor
+     * @param out
      * @throws IOException
      */
-    private static void saveCipherText(List<BigInteger> cipherTextInBlocks, String saveCipherFile) throws IOException {
+    public static void decryptAll(List<BigInteger> cipherTextInBlocks, final PrivateKey privKey,
+            ExecutorService executor, OutputStream out) throws IOException {
 
-        PrintWriter out = new PrintWriter(saveCipherFile);
+        if (executor == null) {
+            executor = ForkJoinPool.commonPool();
+        }
+        if (cipherTextInBlocks.isEmpty()) {
+            throw new IllegalArgumentException("Cipher text has no blocks");
+        }
+        DecryptionEvent event = new DecryptionEvent();
+        event.begin();
+        int blockBytes = BlockCodec.blockBytes(privKey.getN());
 
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < cipherTextInBlocks.size(); i++) {
-            sb.append(cipherTextInBlocks.get(i));
+        List<BigInteger> blocks = processBlocks(cipherTextInBlocks, decryption(privKey), executor);
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockCodec.write(out, blocks.get(i), blockBytes, i + 1 == blocks.size());
+        }
+        event.commit(privKey.getN(), blocks.size());
+    }
+
+    /**
+     * Decrypts cipher text that was encrypted before the byte block encoding,
+     * when each block was base 36 text
+     * 
+     * @param cipherTextInBlocks
+     * @param privKey
+     * @return
+     */
+    static String decryptLegacyText(List<BigInteger> cipherTextInBlocks, PrivateKey privKey) {
 
-            if (i + 1 < cipherTextInBlocks.size()) {
-                sb.append("\n");
+        StringBuilder plainText = new StringBuilder();
+        for (BigInteger c : cipherTextInBlocks) {
+            plainText.append(decrypt(c, privKey).toString(36));
+        }
+        return plainText.toString();
+    }
+
+    /**
+     * Save the encrypted text in the binary cipher text format
+     * 
+     * @param cipherTextInBlocks
+     * @param n
+     * @param saveCipherFile
+     * @throws IOException
+     */
+    static void saveCipherText(List<BigInteger> cipherTextInBlocks, BigInteger n, String saveCipherFile)
+            throws IOException {
+
+        long start = System.nanoTime();
+        CipherTextWriter out = new CipherTextWriter(new FileOutputStream(saveCipherFile), n,
+                cipherTextInBlocks.size());
+        try {
+            for (BigInteger c : cipherTextInBlocks) {
+                out.writeBlock(c);
             }
+        } finally {
+            out.close();
         }
-        out.println(sb.toString());
-        out.close();
+        listener.cipherTextSaved(saveCipherFile, cipherTextInBlocks.size(), System.nanoTime() - start);
     }
 
     /**
@@ -238,70 +564,180 @@ public class RSA {
      * 
      * @param plainTextFileName
      * @return
-     * @throws FileNotFoundException
+     * @throws IOException
+     */
+    private static byte[] loadPlainText(String plainTextFileName) throws IOException {
+        return Files.readAllBytes(Paths.get(plainTextFileName));
+    }
+
+    /**
+     * Loads cipher text from a file. Files in the binary cipher text format
+     * are read with CipherTextReader, older files with one decimal block per
+     * line are still read as text.
+     * 
+     * @param cipherTextFileName
+     * @return
+     * @throws IOException
      */
-    private static String loadPlainText(String plainTextFileName) throws FileNotFoundException {
+    static List<BigInteger> loadCipherText(String cipherTextFileName) throws IOException {
+
+        long start = System.nanoTime();
+        List<BigInteger> cipherText = new ArrayList<BigInteger>();
+
+        BufferedInputStream fileIn = new BufferedInputStream(new FileInputStream(cipherTextFileName));
+        byte[] header = new byte[4];
+        fileIn.mark(header.length);
+        int headerLength = fileIn.read(header);
+        fileIn.reset();
+
+        if (headerLength == header.length && CipherTextReader.isCipherText(header)) {
+            CipherTextReader reader = new CipherTextReader(fileIn);
+            try {
+                BigInteger c;
+                while ((c = reader.readBlock()) != null) {
+                    cipherText.add(c);
+                }
+            } finally {
+                reader.close();
+            }
+            listener.cipherTextLoaded(cipherTextFileName, cipherText.size(), System.nanoTime() - start);
+            return cipherText;
+        }
 
-        Scanner fileIn = new Scanner(new FileReader(plainTextFileName));
-        String plainText = fileIn.nextLine();
-        fileIn.close();
+        Scanner textIn = new Scanner(fileIn);
+        while (textIn.hasNextLine()) {
+            String text = textIn.nextLine().trim();
+            if (!text.isEmpty()) {
+                cipherText.add(new BigInteger(text));
+            }
+        }
 
-        plainText = plainText.toUpperCase();
-        plainText = plainText.replaceAll("[^a-zA-Z]", "");
+        textIn.close();
+        listener.cipherTextLoaded(cipherTextFileName, cipherText.size(), System.nanoTime() - start);
 
-        return plainText;
+        return cipherText;
     }
 
     /**
-     * Saves cipher text to a file
+     * Returns true if the cipher text file holds base 36 text blocks, either as
+     * decimal lines or in the first version of the binary format
      * 
      * @param cipherTextFileName
      * @return
-     * @throws FileNotFoundException
+     * @throws IOException
      */
-    private static List<String> loadCipherText(String cipherTextFileName) throws FileNotFoundException {
+    private static boolean isLegacyCipherText(String cipherTextFileName) throws IOException {
 
-        List<String> cipherText = new ArrayList<String>();
+        InputStream fileIn = new FileInputStream(cipherTextFileName);
+        try {
+            byte[] header = new byte[5];
+            int headerLength = fileIn.read(header);
+            return headerLength < header.length || !CipherTextReader.isCipherText(header)
+                    || header[4] == CipherTextReader.LEGACY_VERSION;
+        } finally {
+            fileIn.close();
+        }
+    }
 
-        Scanner fileIn = new Scanner(new FileReader(cipherTextFileName));
+    /**
+     * Saves a key in the binary key format
+     * 
+     * @param key
+     * @param fileName
+     * @throws IOException
+     */
+    static void saveKey(Object key, String fileName) throws IOException {
 
-        while (fileIn.hasNextLine()) {
-            String text = fileIn.nextLine();
-            System.out.println("text: " + text);
-            cipherText.add(text);
+        BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(fileName));
+        try {
+            KeyCodec.write(key, out);
+        } finally {
+            try {
+                out.close();
+            } finally {
+                // after the write, so a load racing with it cannot cache the old key
+                keyCache.invalidate(fileName);
+            }
         }
+        listener.keySaved(key, fileName);
+    }
 
-        fileIn.close();
+    /**
+     * Loads a key through the key cache
+     * 
+     * @param keyName
+     * @return
+     * @throws IOException
+     */
+    static Object loadKey(String keyName) throws IOException {
+
+        long start = System.nanoTime();
+        KeyLoadEvent event = new KeyLoadEvent();
+        event.begin();
+        Object key = keyCache.get(keyName, KEY_FILE_LOADER);
+        listener.keyLoaded(keyName, System.nanoTime() - start);
+
+        if (event.shouldCommit()) {
+            event.fileName = keyName;
+            if (key instanceof PrivateKey) {
+                event.keyType = "private";
+                event.modulusBits = ((PrivateKey) key).getN().bitLength();
+            } else if (key instanceof PublicKey) {
+                event.keyType = "public";
+                event.modulusBits = ((PublicKey) key).getN().bitLength();
+            }
+            event.commit();
+        }
+        return key;
+    }
 
-        return cipherText;
+    /**
+     * Returns the cache loadKey goes through
+     * 
+     * @return
+     */
+    public static KeyCache getKeyCache() {
+        return keyCache;
     }
 
     /**
-     * Saves a key
+     * Reads a key from its file. Keys saved with Java serialization before the
+     * binary key format are still loaded.
      * 
-     * @param key
-     * @param fileName
+     * @param keyName
+     * @return
      * @throws IOException
      */
-    private static void saveKey(Serializable key, String fileName) throws IOException {
+    static Object readKey(String keyName) throws IOException {
 
-        FileOutputStream fileOut = new FileOutputStream(fileName);
-        ObjectOutputStream out = new ObjectOutputStream(fileOut);
-        out.writeObject(key);
-        out.close();
-        fileOut.close();
+        BufferedInputStream fileIn = new BufferedInputStream(new FileInputStream(keyName));
+        try {
+            byte[] header = new byte[4];
+            fileIn.mark(header.length);
+            int headerLength = fileIn.read(header);
+            fileIn.reset();
+
+            if (headerLength == header.length && KeyCodec.isKeyFile(header)) {
+                return KeyCodec.read(fileIn);
+            }
+            if (headerLength >= 2 && KeyCodec.isSerialized(header)) {
+                return loadSerializedKey(fileIn);
+            }
+            throw new IOException("Unknown key file format: " + keyName);
+        } finally {
+            fileIn.close();
+        }
     }
 
     /**
-     * Loads a key
+     * Loads a key saved with Java serialization
      * 
-     * @param keyName
+     * @param fileIn
      * @return
      * @throws IOException
      */
-    private static Object loadKey(String keyName) throws IOException {
+    private static Object loadSerializedKey(InputStream fileIn) throws IOException {
 
-        FileInputStream fileIn = new FileInputStream(keyName);
         ObjectInputStream in = new ObjectInputStream(fileIn);
         Object key = null;
         try {
@@ -310,13 +746,32 @@ public class RSA {
             e.printStackTrace();
         }
         in.close();
-        fileIn.close();
 
         return key;
     }
 
+    /**
+     * Rewrites a key file saved with Java serialization in the binary key
+     * format. A file already in the binary format is rewritten unchanged.
+     * 
+     * @param keyName
+     * @throws IOException
+     */
+    public static void migrateKey(String keyName) throws IOException {
+        saveKey(loadKey(keyName), keyName);
+    }
+
     public static void main(String[] args) throws IOException {
 
+        // with arguments run a batch command instead of the menu
+        if (args.length > 0) {
+            System.exit(new BatchCli(System.out, System.err).run(args));
+        }
+
+        // the menu prints what the core methods do
+        RSAListener consoleListener = new ConsoleListener();
+        RSA.setListener(consoleListener);
+
         Scanner in = new Scanner(System.in);
         PrivateKey loadedPrivKey = null;
         PublicKey loadedPubKey = null;
@@ -342,7 +797,10 @@ public class RSA {
                 String pubFileName = in.next();
                 System.out.println("What do you want to name the private key file?:  ");
                 String privFileName = in.next();
-                RSA.createKeys(numOfDigits, pubFileName, privFileName);
+                System.out.println("Use 65537 as the public exponent? (y/n): ");
+                boolean fixedExponent = in.next().equalsIgnoreCase("y");
+                System.out.println("Generating primes and creating keys...");
+                RSA.createKeys(numOfDigits, pubFileName, privFileName, fixedExponent);
             }
             // Load private key
             if (i == 2) {
@@ -365,14 +823,15 @@ public class RSA {
 
                 System.out.println("What is the name of the file to be encrypted?: ");
                 String plainTextFileName = in.next();
-                String plainText = RSA.loadPlainText(plainTextFileName);
+                byte[] plainText = RSA.loadPlainText(plainTextFileName);
+                System.out.println("Encrypting... plain text: " + new String(plainText, StandardCharsets.UTF_8));
 
-                List<BigInteger> cipherText = RSA.encrypt(plainText, loadedPubKey);
+                List<BigInteger> cipherText = RSA.encrypt(plainText, loadedPubKey, null);
                 System.out.println("Cipher text = " + cipherText);
                 System.out.println("What do you want to name the encrypted file?: ");
 
                 String cipherTextFileName = in.next();
-                RSA.saveCipherText(cipherText, cipherTextFileName);
+                RSA.saveCipherText(cipherText, loadedPubKey.getN(), cipherTextFileName);
 
             }
             // Decrypt
@@ -385,67 +844,44 @@ public class RSA {
                 System.out.println("What is the name of the file to be decrypted?: ");
                 String cipherTextFileName = in.next();
 
-                List<String> cipherTextList = RSA.loadCipherText(cipherTextFileName);
-                System.out.println("Cipher text = " + cipherTextList);
-                StringBuilder plainText = new StringBuilder();
+                List<BigInteger> cipherTextInBlocks = RSA.loadCipherText(cipherTextFileName);
+                System.out.println("Cipher text = " + cipherTextInBlocks);
 
-                for (String cipherText : cipherTextList) {
-                    BigInteger c = new BigInteger(cipherText);
-                    BigInteger m = RSA.decrypt(c, loadedPrivKey);
-                    plainText.append(m.toString(36));
+                String plainText;
+                if (RSA.isLegacyCipherText(cipherTextFileName)) {
+                    plainText = RSA.decryptLegacyText(cipherTextInBlocks, loadedPrivKey);
+                } else {
+                    byte[] plainTextBytes = RSA.decryptAll(cipherTextInBlocks, loadedPrivKey, null);
+                    plainText = new String(plainTextBytes, StandardCharsets.UTF_8);
                 }
-
-                System.out.println("Decrypted Message = " + plainText.toString());
+                System.out.println("Decrypted Message = " + plainText);
             }
             if (i == 6) {
 
-                String pubFileName = "test_pub.key";
-                String privFileName = "test_priv.key";
-                boolean testsFailed = false;
-
                 System.out.println("How many tests cases do you want to run?: ");
                 int numOfTestCases = in.nextInt();
-
-                for (int j = 0; j < numOfTestCases; j++) {
-
-                    // Get random number of digits
-                    int rndNumOfDigits = r.nextInt(600) + 10;
-
-                    // create the keys
-                    RSA.createKeys(rndNumOfDigits, pubFileName, privFileName);
-                    loadedPrivKey = (PrivateKey) RSA.loadKey(privFileName);
-                    loadedPubKey = (PublicKey) RSA.loadKey(pubFileName);
-
-                    // Create some random plain text
-                    int rndBitLength = r.nextInt(4096) + 1;
-                    String rndPlainText = new BigInteger(rndBitLength, r).toString(36);
-                    rndPlainText = rndPlainText.replaceAll("[^a-zA-Z]", "");
-
-                    // encrypt the plain text
-                    List<BigInteger> cipherTextInBlocks = RSA.encrypt(rndPlainText, loadedPubKey);
-                    StringBuilder plainText = new StringBuilder();
-
-                    // Decrypt the text
-                    for (BigInteger cipherTextBigInt : cipherTextInBlocks) {
-                        String cipherText = cipherTextBigInt.toString(36);
-                        BigInteger c = new BigInteger(cipherText, 36);
-                        BigInteger m = RSA.decrypt(c, loadedPrivKey);
-                        plainText.append(m.toString(36));
-                    }
-
-                    System.out.println("Decrypted: " + plainText.toString());
-
-                    if (!rndPlainText.equals(plainText.toString())) {
-                        System.out.println("Not equal!");
-                        testsFailed = true;
-                        break;
-                    }
+                System.out.println("Also save and load the keys and cipher text files? (y/n): ");
+                boolean fileRoundTrip = in.next().equalsIgnoreCase("y");
+
+                // keys are shared by the cases, which run on every core
+                SelfTest selfTest = new SelfTest(4, 10, 609, 2048, Runtime.getRuntime().availableProcessors());
+                selfTest.setFileRoundTrip(fileRoundTrip);
+                System.out.println("Generating primes and running test cases...");
+
+                // the cases would print every block split
+                RSA.setListener(null);
+                SelfTest.Result result;
+                try {
+                    result = selfTest.run(numOfTestCases);
+                } finally {
+                    RSA.setListener(consoleListener);
                 }
+                System.out.print(result);
 
-                if (testsFailed) {
-                    System.out.println("Test case failed...");
-                } else {
+                if (result.isSuccess()) {
                     System.out.println("All tests succeeded...");
+                } else {
+                    System.out.println("Test case failed...");
                 }
 
             }
@@ -0,0 +1,170 @@
+package rsa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A connection to an RSAServer on this machine.
+ *
+ * A client can be shared between threads. Requests from all threads are
+ * pipelined on the one connection, and a reader thread hands each response to
+ * the request with the same id.
+ *
+ * @author Eric
+ *
+ */
+public class RSAClient implements Closeable {
+
+    private final Socket socket;
+    private final DataOutputStream out;
+    // a lock rather than synchronized, which would pin a virtual thread to its carrier while writing
+    private final Lock writeLock = new ReentrantLock();
+    private final ConcurrentMap<Integer, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<Integer, CompletableFuture<byte[]>>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile IOException failure;
+
+    /**
+     * Connects to the server on the loopback address
+     *
+     * @param port
+     * @throws IOException
+     */
+    public RSAClient(int port) throws IOException {
+
+        socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setTcpNoDelay(true);
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        RSAProtocol.writeHello(out);
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        VirtualThreads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                read(in);
+            }
+        }, "rsa-client-reader").start();
+    }
+
+    /**
+     * Encrypts the bytes with the server's public key keyId and returns the
+     * binary cipher text
+     *
+     * @param keyId
+     * @param plainText
+     * @return
+     * @throws IOException
+     */
+    public byte[] encrypt(String keyId, byte[] plainText) throws IOException {
+        return await(encryptAsync(keyId, plainText));
+    }
+
+    /**
+     * Decrypts binary cipher text with the server's private key keyId
+     *
+     * @param keyId
+     * @param cipherText
+     * @return
+     * @throws IOException
+     */
+    public byte[] decrypt(String keyId, byte[] cipherText) throws IOException {
+        return await(decryptAsync(keyId, cipherText));
+    }
+
+    public CompletableFuture<byte[]> encryptAsync(String keyId, byte[] plainText) throws IOException {
+        return send(RSAProtocol.ENCRYPT, keyId, plainText);
+    }
+
+    public CompletableFuture<byte[]> decryptAsync(String keyId, byte[] cipherText) throws IOException {
+        return send(RSAProtocol.DECRYPT, keyId, cipherText);
+    }
+
+    private CompletableFuture<byte[]> send(byte operation, String keyId, byte[] payload) throws IOException {
+
+        if (failure != null) {
+            throw failure;
+        }
+        int id = nextId.incrementAndGet();
+        CompletableFuture<byte[]> response = new CompletableFuture<byte[]>();
+        pending.put(id, response);
+        if (failure != null) {
+            // the reader stopped after the check above and missed this one
+            pending.remove(id);
+            throw failure;
+        }
+        try {
+            writeLock.lock();
+            try {
+                RSAProtocol.writeRequest(out, id, operation, keyId, payload);
+                out.flush();
+            } finally {
+                writeLock.unlock();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            throw e;
+        }
+        return response;
+    }
+
+    /**
+     * Completes requests as their responses arrive, until the connection ends
+     */
+    private void read(DataInputStream in) {
+        try {
+            while (true) {
+                int id = in.readInt();
+                byte status = in.readByte();
+                byte[] payload = RSAProtocol.readPayload(in);
+
+                CompletableFuture<byte[]> response = pending.remove(id);
+                if (response == null) {
+                    continue;
+                }
+                if (status == RSAProtocol.OK) {
+                    response.complete(payload);
+                } else {
+                    response.completeExceptionally(new IOException(new String(payload, StandardCharsets.UTF_8)));
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+            for (CompletableFuture<byte[]> response : pending.values()) {
+                response.completeExceptionally(e);
+            }
+            pending.clear();
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> response) throws IOException {
+        try {
+            return response.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the server", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
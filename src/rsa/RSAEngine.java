@@ -0,0 +1,94 @@
+package rsa;
+
+import java.security.SecureRandom;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * An instance-based way to use RSA without the static state in the RSA class.
+ *
+ * An engine holds its own random source, executor and listener. Keys are
+ * bound to it once with bind, which does all the per-key work up front and
+ * returns an RSAKeyContext that any number of threads can use at the same
+ * time. Engines and contexts never read from the console.
+ *
+ * @author Eric
+ *
+ */
+public final class RSAEngine {
+
+    private final SecureRandom random;
+    private final ExecutorService executor;
+    private final RSAListener listener;
+
+    /**
+     * An engine with its own SecureRandom, no listener, that does all work on
+     * the calling thread
+     */
+    public RSAEngine() {
+        this(new SecureRandom(), null, null);
+    }
+
+    /**
+     * @param random
+     *            - used to generate keys, SecureRandom is safe to share
+     * @param executor
+     *            - runs the prime search and the blocks of one message in
+     *            parallel, or null to use the calling thread. The engine does
+     *            not shut it down.
+     * @param listener
+     *            - told about keys and blocks, or null for none. Must be safe
+     *            to call from several threads.
+     */
+    public RSAEngine(SecureRandom random, ExecutorService executor, RSAListener listener) {
+
+        if (random == null) {
+            throw new IllegalArgumentException("random is null");
+        }
+        this.random = random;
+        this.executor = executor;
+        this.listener = listener == null ? RSAListener.NONE : listener;
+    }
+
+    /**
+     * Generates a public and private key. The primes are searched on the
+     * engine's executor, or on the calling thread if it has none.
+     *
+     * @param numOfDigits
+     * @param fixedExponent
+     *            - use e = 65537 instead of a random exponent
+     * @return
+     */
+    public KeyPair generateKeyPair(int numOfDigits, boolean fixedExponent) {
+        return RSA.generateKeyPair(numOfDigits, fixedExponent, random, executor, listener);
+    }
+
+    /**
+     * Binds a public key, the context can only encrypt
+     *
+     * @param pubKey
+     * @return
+     */
+    public RSAKeyContext bind(PublicKey pubKey) {
+        return new RSAKeyContext(pubKey, null, executor, listener);
+    }
+
+    /**
+     * Binds a private key, the context can only decrypt
+     *
+     * @param privKey
+     * @return
+     */
+    public RSAKeyContext bind(PrivateKey privKey) {
+        return new RSAKeyContext(null, privKey, executor, listener);
+    }
+
+    /**
+     * Binds both keys of a pair, the context can encrypt and decrypt
+     *
+     * @param keyPair
+     * @return
+     */
+    public RSAKeyContext bind(KeyPair keyPair) {
+        return new RSAKeyContext(keyPair.getPublicKey(), keyPair.getPrivateKey(), executor, listener);
+    }
+}
@@ -0,0 +1,200 @@
+package rsa;
+
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A key bound to an RSAEngine, ready to encrypt or decrypt.
+ *
+ * Everything that only depends on the key is worked out when the context is
+ * made: the modulus, its bit length and block size, and for private keys with
+ * p and q the CRT exponents dP, dQ and qInv. The key's numbers are copied, so
+ * later changes to the PublicKey or PrivateKey object don't affect the
+ * context. A context is immutable and can be shared by any number of threads
+ * without locking.
+ *
+ * @author Eric
+ *
+ */
+public final class RSAKeyContext {
+
+    private final BigInteger n;
+    private final int modulusBits;
+    private final int blockBytes;
+
+    // public key, null if the context can't encrypt
+    private final BigInteger e;
+
+    // private key, null if the context can't decrypt
+    private final BigInteger d;
+    // CRT parameters, null if the private key has no p and q
+    private final BigInteger p;
+    private final BigInteger q;
+    private final BigInteger dP;
+    private final BigInteger dQ;
+    private final BigInteger qInv;
+
+    private final ExecutorService executor;
+    private final RSAListener listener;
+
+    RSAKeyContext(PublicKey pubKey, PrivateKey privKey, ExecutorService executor, RSAListener listener) {
+
+        if (pubKey == null && privKey == null) {
+            throw new IllegalArgumentException("Need a public or a private key");
+        }
+        if (pubKey != null && privKey != null && !pubKey.getN().equals(privKey.getN())) {
+            throw new IllegalArgumentException("Public and private key have different moduli");
+        }
+
+        this.n = pubKey != null ? pubKey.getN() : privKey.getN();
+        this.modulusBits = n.bitLength();
+        this.blockBytes = BlockCodec.blockBytes(n);
+        this.e = pubKey != null ? pubKey.getE() : null;
+
+        if (privKey != null && privKey.getP() != null && privKey.getQ() != null) {
+            this.d = privKey.getD();
+            this.p = privKey.getP();
+            this.q = privKey.getQ();
+            this.dP = privKey.getDP();
+            this.dQ = privKey.getDQ();
+            this.qInv = privKey.getQInv();
+        } else {
+            this.d = privKey != null ? privKey.getD() : null;
+            this.p = null;
+            this.q = null;
+            this.dP = null;
+            this.dQ = null;
+            this.qInv = null;
+        }
+
+        this.executor = executor;
+        this.listener = listener;
+    }
+
+    public boolean canEncrypt() {
+        return e != null;
+    }
+
+    public boolean canDecrypt() {
+        return d != null;
+    }
+
+    public BigInteger getModulus() {
+        return n;
+    }
+
+    public int getModulusBits() {
+        return modulusBits;
+    }
+
+    /**
+     * Plain text bytes per block
+     *
+     * @return
+     */
+    public int getBlockBytes() {
+        return blockBytes;
+    }
+
+    /**
+     * Encrypts a single block, m^e mod n
+     *
+     * @param m
+     * @return
+     */
+    public BigInteger encryptBlock(BigInteger m) {
+
+        if (e == null) {
+            throw new IllegalStateException("Context has no public key");
+        }
+        if (listener == RSAListener.NONE) {
+            return m.modPow(e, n);
+        }
+        long start = System.nanoTime();
+        BigInteger c = m.modPow(e, n);
+        listener.blockEncrypted(modulusBits, System.nanoTime() - start);
+        return c;
+    }
+
+    /**
+     * Decrypts a single block, with the Chinese Remainder Theorem when the
+     * private key had p and q
+     *
+     * @param c
+     * @return
+     */
+    public BigInteger decryptBlock(BigInteger c) {
+
+        if (d == null) {
+            throw new IllegalStateException("Context has no private key");
+        }
+        // only time the block when someone listens
+        boolean timed = listener != RSAListener.NONE;
+        long start = timed ? System.nanoTime() : 0;
+
+        BigInteger m;
+        if (p != null) {
+            m = RSA.decryptCRT(c, p, q, dP, dQ, qInv);
+        } else {
+            m = c.modPow(d, n);
+        }
+
+        if (timed) {
+            listener.blockDecrypted(modulusBits, System.nanoTime() - start);
+        }
+        return m;
+    }
+
+    /**
+     * Splits the bytes into BlockCodec blocks and encrypts them, on the
+     * engine's executor if it has one
+     *
+     * @param plainText
+     * @return
+     */
+    public List<BigInteger> encrypt(byte[] plainText) {
+
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        List<BigInteger> blocks = BlockCodec.split(plainText, n);
+        listener.blocksSplit(blockBytes, blocks.size());
+
+        List<BigInteger> cipherText = RSA.processBlocks(blocks, new RSA.BlockOperation() {
+            @Override
+            public BigInteger apply(BigInteger m) {
+                return encryptBlock(m);
+            }
+        }, executor);
+
+        event.commit(n, cipherText.size());
+        return cipherText;
+    }
+
+    /**
+     * Decrypts blocks made by encrypt and returns the plain text bytes, on the
+     * engine's executor if it has one
+     *
+     * @param cipherText
+     * @return
+     */
+    public byte[] decrypt(List<BigInteger> cipherText) {
+
+        if (cipherText.isEmpty()) {
+            throw new IllegalArgumentException("Cipher text has no blocks");
+        }
+        DecryptionEvent event = new DecryptionEvent();
+        event.begin();
+
+        List<BigInteger> blocks = RSA.processBlocks(cipherText, new RSA.BlockOperation() {
+            @Override
+            public BigInteger apply(BigInteger c) {
+                return decryptBlock(c);
+            }
+        }, executor);
+
+        byte[] plainText = BlockCodec.join(blocks, blockBytes);
+        event.commit(n, blocks.size());
+        return plainText;
+    }
+}
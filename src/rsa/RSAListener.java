@@ -0,0 +1,98 @@
+package rsa;
+
+/**
+ * Receives events from the core RSA methods, e.g. to print progress or record
+ * metrics.
+ * 
+ * Every method does nothing by default. Events pass the objects involved
+ * as-is, so nothing is formatted unless a listener asks for it, and the calls
+ * made on NONE can be inlined away by the JIT.
+ * 
+ * @author Eric
+ *
+ */
+public interface RSAListener {
+
+    /**
+     * Listener that ignores every event
+     */
+    RSAListener NONE = new RSAListener() {
+    };
+
+    /**
+     * A key pair was generated
+     * 
+     * @param pubKey
+     * @param privKey
+     * @param nanos
+     *            - time taken to generate the pair
+     */
+    default void keysCreated(PublicKey pubKey, PrivateKey privKey, long nanos) {
+    }
+
+    /**
+     * A key was saved to a file
+     * 
+     * @param key
+     * @param fileName
+     */
+    default void keySaved(Object key, String fileName) {
+    }
+
+    /**
+     * A key was loaded, from its file or from the key cache
+     * 
+     * @param fileName
+     * @param nanos
+     */
+    default void keyLoaded(String fileName, long nanos) {
+    }
+
+    /**
+     * Plain text was split into blocks for encryption
+     * 
+     * @param blockBytes
+     *            - bytes per block
+     * @param blockCount
+     */
+    default void blocksSplit(int blockBytes, int blockCount) {
+    }
+
+    /**
+     * A block was encrypted
+     * 
+     * @param modulusBits
+     * @param nanos
+     */
+    default void blockEncrypted(int modulusBits, long nanos) {
+    }
+
+    /**
+     * A block was decrypted
+     * 
+     * @param modulusBits
+     * @param nanos
+     */
+    default void blockDecrypted(int modulusBits, long nanos) {
+    }
+
+    /**
+     * Cipher text was written to a file
+     * 
+     * @param fileName
+     * @param blockCount
+     * @param nanos
+     */
+    default void cipherTextSaved(String fileName, int blockCount, long nanos) {
+    }
+
+    /**
+     * Cipher text was read from a file
+     * 
+     * @param fileName
+     * @param blockCount
+     * @param nanos
+     */
+    default void cipherTextLoaded(String fileName, int blockCount, long nanos) {
+    }
+}
@@ -0,0 +1,94 @@
+package rsa;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol spoken between RSAClient and RSAServer.
+ *
+ * A connection starts with the client sending the magic number "RSAP" and a
+ * version byte. After that the client sends requests and the server sends
+ * responses, all big-endian. Requests may be pipelined and responses can come
+ * back in any order, so both carry an id chosen by the client.
+ *
+ * Request: int id, byte operation, key id (DataOutput UTF), int length,
+ * payload. The payload of an encrypt request is the plain text, the payload
+ * of a decrypt request is cipher text in the binary cipher text format.
+ *
+ * Response: int id, byte status, int length, payload. On success the payload
+ * is the cipher text or plain text, on error it is a UTF-8 message.
+ *
+ * @author Eric
+ *
+ */
+final class RSAProtocol {
+
+    static final int MAGIC = 0x52534150;
+    static final int VERSION = 1;
+
+    static final byte ENCRYPT = 1;
+    static final byte DECRYPT = 2;
+
+    static final byte OK = 0;
+    static final byte ERROR = 1;
+
+    /**
+     * Largest payload accepted, in bytes
+     */
+    static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private RSAProtocol() {
+    }
+
+    static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.flush();
+    }
+
+    static void readHello(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not an RSA protocol connection");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version: " + version);
+        }
+    }
+
+    /**
+     * Writes a request. The caller flushes.
+     */
+    static void writeRequest(DataOutputStream out, int id, byte operation, String keyId, byte[] payload)
+            throws IOException {
+        out.writeInt(id);
+        out.writeByte(operation);
+        out.writeUTF(keyId);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Writes a response. The caller flushes.
+     */
+    static void writeResponse(DataOutputStream out, int id, byte status, byte[] payload) throws IOException {
+        out.writeInt(id);
+        out.writeByte(status);
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+
+    /**
+     * Reads a length and that many bytes
+     */
+    static byte[] readPayload(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_PAYLOAD) {
+            throw new IOException("Bad payload length: " + length);
+        }
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return payload;
+    }
+}
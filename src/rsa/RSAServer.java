@@ -0,0 +1,532 @@
+package rsa;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A long-running encryption/decryption service on a localhost TCP port,
+ * speaking RSAProtocol.
+ *
+ * Keys are loaded once and held in memory under an id. Each connection has a
+ * thread that reads requests, splits them into blocks and queues them. A
+ * single batcher thread takes everything queued at that moment, up to
+ * maxBatch requests, and splits all blocks of the batch evenly over the crypto
+ * pool. While a batch runs new requests queue up, so batches grow with the
+ * load and many small requests cost one round of task hand-offs instead of
+ * one each.
+ *
+ * Connection threads and response writes run on virtual threads when the JVM
+ * has them (see VirtualThreads), so idle connections cost little more than
+ * their socket. Only the crypto pool does CPU-bound work, and it has a fixed
+ * number of threads, normally one per core, however many clients connect.
+ *
+ * The queue holds at most QUEUED_BATCHES batches of requests. When it is full
+ * connection threads stop reading until there is room, so clients that send
+ * faster than the server can answer are held back by TCP flow control instead
+ * of piling up work in memory.
+ *
+ * @author Eric
+ *
+ */
+public class RSAServer implements Closeable {
+
+    /**
+     * Full batches that can wait in the queue
+     */
+    static final int QUEUED_BATCHES = 4;
+
+    private final int port;
+    private final int cryptoThreads;
+    private final int maxBatch;
+
+    private final ConcurrentMap<String, PublicKey> publicKeys = new ConcurrentHashMap<String, PublicKey>();
+    private final ConcurrentMap<String, PrivateKey> privateKeys = new ConcurrentHashMap<String, PrivateKey>();
+    private final BlockingQueue<Request> queue;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    private ServerSocket serverSocket;
+    private ExecutorService connectionPool;
+    private ExecutorService cryptoPool;
+    private Thread acceptor;
+    private Thread batcher;
+    private volatile boolean closed;
+
+    /**
+     * @param port
+     *            - localhost port to listen on, 0 for any free port
+     * @param cryptoThreads
+     *            - threads encrypting and decrypting blocks
+     * @param maxBatch
+     *            - most requests in one batch
+     */
+    public RSAServer(int port, int cryptoThreads, int maxBatch) {
+
+        if (port < 0 || cryptoThreads <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("Need port >= 0, cryptoThreads > 0 and maxBatch > 0");
+        }
+        this.port = port;
+        this.cryptoThreads = cryptoThreads;
+        this.maxBatch = maxBatch;
+        this.queue = new LinkedBlockingQueue<Request>(maxBatch * QUEUED_BATCHES);
+    }
+
+    /**
+     * Serves encrypt requests for the key id
+     *
+     * @param keyId
+     * @param pubKey
+     */
+    public void addPublicKey(String keyId, PublicKey pubKey) {
+        publicKeys.put(keyId, pubKey);
+    }
+
+    /**
+     * Serves decrypt requests for the key id
+     *
+     * @param keyId
+     * @param privKey
+     */
+    public void addPrivateKey(String keyId, PrivateKey privKey) {
+        privateKeys.put(keyId, privKey);
+    }
+
+    /**
+     * Starts listening on the loopback address
+     *
+     * @throws IOException
+     */
+    public synchronized void start() throws IOException {
+
+        if (serverSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+
+        connectionPool = VirtualThreads.newPerTaskExecutor(threadFactory("rsa-connection-"));
+        cryptoPool = Executors.newFixedThreadPool(cryptoThreads, threadFactory("rsa-crypto-"));
+
+        acceptor = threadFactory("rsa-acceptor").newThread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        });
+        batcher = threadFactory("rsa-batcher").newThread(new Runnable() {
+            @Override
+            public void run() {
+                batch();
+            }
+        });
+        acceptor.start();
+        batcher.start();
+    }
+
+    /**
+     * The port listened on, useful when started on port 0
+     *
+     * @return
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    /**
+     * Stops accepting, closes every connection and stops the threads.
+     * Requests still queued are dropped.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+
+        if (serverSocket == null || closed) {
+            return;
+        }
+        closed = true;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        batcher.interrupt();
+        connectionPool.shutdownNow();
+        cryptoPool.shutdownNow();
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection;
+                try {
+                    connection = new Connection(socket);
+                } catch (IOException e) {
+                    socket.close();
+                    continue;
+                }
+                connections.add(connection);
+                connectionPool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.serve();
+                    }
+                });
+            } catch (IOException e) {
+                if (!closed) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * Takes whatever is queued, up to maxBatch requests, and runs it as one
+     * batch
+     */
+    private void batch() {
+
+        List<Request> batch = new ArrayList<Request>(maxBatch);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, maxBatch - 1);
+            try {
+                run(batch);
+            } catch (RuntimeException e) {
+                for (Request request : batch) {
+                    request.fail(e.toString());
+                }
+            }
+            batches.incrementAndGet();
+            batch.clear();
+        }
+    }
+
+    /**
+     * Splits the blocks of every request in the batch into one chunk per
+     * crypto thread. When the chunks are done the responses are encoded and
+     * written off the batcher thread.
+     */
+    private void run(List<Request> batch) {
+
+        int total = 0;
+        for (Request request : batch) {
+            request.offset = total;
+            total += request.in.length;
+        }
+
+        final Request[] owner = new Request[total];
+        for (Request request : batch) {
+            for (int i = 0; i < request.in.length; i++) {
+                owner[request.offset + i] = request;
+            }
+        }
+
+        int chunks = Math.min(cryptoThreads, total);
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(chunks);
+        for (int chunk = 0; chunk < chunks; chunk++) {
+            final int from = (int) ((long) total * chunk / chunks);
+            final int to = (int) ((long) total * (chunk + 1) / chunks);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    for (int i = from; i < to; i++) {
+                        owner[i].process(i - owner[i].offset);
+                    }
+                    return null;
+                }
+            });
+        }
+
+        try {
+            for (Future<Void> task : cryptoPool.invokeAll(tasks)) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for blocks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Block failed", e.getCause());
+        }
+
+        for (final Request request : batch) {
+            connectionPool.execute(new Runnable() {
+                @Override
+                public void run() {
+                    request.complete();
+                }
+            });
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                String threadName = name.endsWith("-") ? name + count.incrementAndGet() : name;
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A client connection. Reads requests on its own thread, responses are
+     * written by whichever thread completes them.
+     */
+    private class Connection {
+
+        private final Socket socket;
+        private final DataOutputStream out;
+        // a lock rather than synchronized, which would pin a virtual thread to its carrier while writing
+        private final Lock writeLock = new ReentrantLock();
+
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void serve() {
+            try {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                RSAProtocol.readHello(in);
+
+                while (!closed) {
+                    int id;
+                    try {
+                        id = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    byte operation = in.readByte();
+                    String keyId = in.readUTF();
+                    byte[] payload = RSAProtocol.readPayload(in);
+                    requests.incrementAndGet();
+
+                    Request request = new Request(this, id, operation, keyId, payload);
+                    try {
+                        request.prepare();
+                        // blocks while the queue is full, which stops this client's reads
+                        queue.put(request);
+                    } catch (InterruptedException e) {
+                        // close() stops the connection threads
+                        break;
+                    } catch (IllegalArgumentException e) {
+                        request.fail(e.getMessage());
+                    } catch (IOException e) {
+                        request.fail("Bad cipher text: " + e);
+                    }
+                }
+            } catch (SocketException e) {
+                // closed by the client or by close()
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Dropping connection: " + e.getMessage());
+                }
+            } finally {
+                close();
+            }
+        }
+
+        void respond(int id, byte status, byte[] payload) {
+            writeLock.lock();
+            try {
+                RSAProtocol.writeResponse(out, id, status, payload);
+                out.flush();
+            } catch (IOException e) {
+                close();
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        void close() {
+            connections.remove(this);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    /**
+     * A queued request and its blocks
+     */
+    private class Request {
+
+        private final Connection connection;
+        private final int id;
+        private final byte operation;
+        private final String keyId;
+        private final byte[] payload;
+
+        private PublicKey pubKey;
+        private PrivateKey privKey;
+        private BigInteger[] in;
+        private BigInteger[] out;
+        private int offset;
+        private final AtomicBoolean answered = new AtomicBoolean();
+
+        // span the request from its key lookup to its answer
+        private final EncryptionEvent encryptionEvent = new EncryptionEvent();
+        private final DecryptionEvent decryptionEvent = new DecryptionEvent();
+
+        Request(Connection connection, int id, byte operation, String keyId, byte[] payload) {
+            this.connection = connection;
+            this.id = id;
+            this.operation = operation;
+            this.keyId = keyId;
+            this.payload = payload;
+        }
+
+        /**
+         * Looks up the key and splits the payload into blocks
+         */
+        void prepare() throws IOException {
+
+            List<BigInteger> blocks;
+            encryptionEvent.begin();
+            decryptionEvent.begin();
+            if (operation == RSAProtocol.ENCRYPT) {
+                pubKey = publicKeys.get(keyId);
+                if (pubKey == null) {
+                    throw new IllegalArgumentException("No public key: " + keyId);
+                }
+                blocks = BlockCodec.split(payload, pubKey.getN());
+            } else if (operation == RSAProtocol.DECRYPT) {
+                privKey = privateKeys.get(keyId);
+                if (privKey == null) {
+                    throw new IllegalArgumentException("No private key: " + keyId);
+                }
+                blocks = readCipherText();
+            } else {
+                throw new IllegalArgumentException("Unknown operation: " + operation);
+            }
+            in = blocks.toArray(new BigInteger[blocks.size()]);
+            out = new BigInteger[in.length];
+        }
+
+        private List<BigInteger> readCipherText() throws IOException {
+
+            // the block width comes from the client, so check it before the reader allocates a block
+            int blockWidth = (privKey.getN().bitLength() + 7) / 8;
+            CipherTextReader reader = new CipherTextReader(new ByteArrayInputStream(payload),
+                    Math.min(blockWidth, payload.length));
+            if (reader.getBlockWidth() != blockWidth) {
+                throw new IllegalArgumentException("Block width " + reader.getBlockWidth() + " does not match key "
+                        + keyId + ", expected " + blockWidth);
+            }
+            if (reader.isLegacyEncoding()) {
+                throw new IllegalArgumentException("Base 36 cipher text is not supported");
+            }
+            List<BigInteger> blocks = new ArrayList<BigInteger>();
+            BigInteger c;
+            while ((c = reader.readBlock()) != null) {
+                blocks.add(c);
+            }
+            if (blocks.isEmpty()) {
+                throw new IllegalArgumentException("Cipher text has no blocks");
+            }
+            return blocks;
+        }
+
+        void process(int block) {
+            out[block] = pubKey != null ? RSA.encryptBlock(in[block], pubKey) : RSA.decrypt(in[block], privKey);
+        }
+
+        void complete() {
+            try {
+                if (pubKey != null) {
+                    byte[] cipherText = cipherText();
+                    encryptionEvent.commit(pubKey.getN(), out.length);
+                    answer(RSAProtocol.OK, cipherText);
+                } else {
+                    byte[] plainText = plainText();
+                    decryptionEvent.commit(privKey.getN(), out.length);
+                    answer(RSAProtocol.OK, plainText);
+                }
+            } catch (IOException e) {
+                fail(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                fail(e.getMessage());
+            }
+        }
+
+        void fail(String message) {
+            answer(RSAProtocol.ERROR, String.valueOf(message).getBytes(StandardCharsets.UTF_8));
+        }
+
+        /**
+         * Sends the response, unless the request was already answered
+         */
+        private void answer(byte status, byte[] payload) {
+            if (answered.compareAndSet(false, true)) {
+                connection.respond(id, status, payload);
+            }
+        }
+
+        private byte[] cipherText() throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            CipherTextWriter writer = new CipherTextWriter(bytes, pubKey.getN(), out.length);
+            for (BigInteger c : out) {
+                writer.writeBlock(c);
+            }
+            writer.flush();
+            return bytes.toByteArray();
+        }
+
+        private byte[] plainText() {
+            return BlockCodec.join(Arrays.asList(out), BlockCodec.blockBytes(privKey.getN()));
+        }
+    }
+}
@@ -0,0 +1,418 @@
+package rsa;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs random encrypt/decrypt round trips in parallel and reports throughput
+ * and failures.
+ *
+ * A few key pairs with random sizes are generated up front and shared by all
+ * cases. Every case gets its own seed, derived from the seed of the run and
+ * the case number, which picks the key and the random message. The keys are
+ * generated from the seed of the run as well. A failing case is reported with
+ * its seed, so with the same run seed the same key and message can be tried
+ * again with runCase. Round trips stay in memory unless file round trips are turned on,
+ * in which case the keys and every cipher text also go through their files.
+ *
+ * @author Eric
+ *
+ */
+public class SelfTest {
+
+    /**
+     * Most failures kept in a result, the rest are only counted
+     */
+    static final int MAX_REPORTED_FAILURES = 100;
+
+    private final int keyCount;
+    private final int minDigits;
+    private final int maxDigits;
+    private final int maxMessageBytes;
+    private final int threads;
+
+    private boolean fileRoundTrip;
+    private long seed = System.nanoTime();
+
+    private KeyPair[] keys;
+    private File tempDir;
+
+    /**
+     * @param keyCount
+     *            - key pairs shared by the cases
+     * @param minDigits
+     *            - smallest key size, in digits of the primes
+     * @param maxDigits
+     *            - largest key size
+     * @param maxMessageBytes
+     *            - longest random message
+     * @param threads
+     *            - threads running cases
+     */
+    public SelfTest(int keyCount, int minDigits, int maxDigits, int maxMessageBytes, int threads) {
+
+        if (keyCount <= 0 || minDigits <= 1 || maxDigits < minDigits || maxMessageBytes < 0 || threads <= 0) {
+            throw new IllegalArgumentException(
+                    "Need keyCount > 0, 1 < minDigits <= maxDigits, maxMessageBytes >= 0 and threads > 0");
+        }
+        this.keyCount = keyCount;
+        this.minDigits = minDigits;
+        this.maxDigits = maxDigits;
+        this.maxMessageBytes = maxMessageBytes;
+        this.threads = threads;
+    }
+
+    /**
+     * Also saves and loads the keys and every cipher text through files in a
+     * temporary directory. Much slower, off by default.
+     *
+     * @param fileRoundTrip
+     */
+    public void setFileRoundTrip(boolean fileRoundTrip) {
+        this.fileRoundTrip = fileRoundTrip;
+    }
+
+    /**
+     * Sets the seed the keys and case seeds are derived from. Random by
+     * default.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Runs the cases. Keys are generated on the first run and kept for later
+     * runs.
+     *
+     * @param cases
+     * @return
+     * @throws IOException
+     */
+    public Result run(final long cases) throws IOException {
+
+        long start = System.nanoTime();
+        prepareKeys();
+        long keyNanos = System.nanoTime() - start;
+
+        final AtomicLong next = new AtomicLong();
+        final LongAdder blocks = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final AtomicLong failureCount = new AtomicLong();
+        final List<Failure> failures = Collections.synchronizedList(new ArrayList<Failure>());
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "self-test-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+
+        // each thread pulls case numbers until they run out
+        List<Callable<Void>> workers = new ArrayList<Callable<Void>>(threads);
+        for (int t = 0; t < threads; t++) {
+            final File cipherFile = fileRoundTrip ? cipherFile("cipher-" + t + ".bin") : null;
+            workers.add(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    long i;
+                    while ((i = next.getAndIncrement()) < cases) {
+                        long caseSeed = caseSeed(i);
+                        try {
+                            int caseBlocks = runCase(caseSeed, cipherFile, bytes);
+                            blocks.add(caseBlocks);
+                        } catch (Exception e) {
+                            if (failureCount.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+                                failures.add(new Failure(i, caseSeed, e.toString()));
+                            }
+                        }
+                    }
+                    return null;
+                }
+            });
+        }
+
+        long runStart = System.nanoTime();
+        try {
+            for (Future<Void> worker : executor.invokeAll(workers)) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running test cases", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Test worker failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        long runNanos = System.nanoTime() - runStart;
+
+        List<Failure> sorted = new ArrayList<Failure>(failures);
+        Collections.sort(sorted);
+        return new Result(cases, failureCount.get(), sorted, blocks.sum(), bytes.sum(), keyNanos, runNanos, seed);
+    }
+
+    /**
+     * Runs a single case again, e.g. one reported as failed. The seed of the
+     * run must be set to the one the case failed in, so the keys are the
+     * same. Throws if the round trip fails.
+     *
+     * @param caseSeed
+     * @throws IOException
+     */
+    public void runCase(long caseSeed) throws IOException {
+        prepareKeys();
+        runCase(caseSeed, fileRoundTrip ? cipherFile("cipher-rerun.bin") : null, new LongAdder());
+    }
+
+    /**
+     * A cipher text file in the temporary directory, deleted on exit so the
+     * directory can be deleted too
+     */
+    private File cipherFile(String name) {
+        File file = new File(tempDir, name);
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * @return int - number of blocks encrypted
+     */
+    private int runCase(long caseSeed, File cipherFile, LongAdder bytes) throws IOException {
+
+        Random random = new Random(caseSeed);
+        KeyPair keyPair = keys[random.nextInt(keys.length)];
+        byte[] message = new byte[random.nextInt(maxMessageBytes + 1)];
+        random.nextBytes(message);
+
+        PublicKey pubKey = keyPair.getPublicKey();
+        PrivateKey privKey = keyPair.getPrivateKey();
+        List<BigInteger> cipherText = RSA.encrypt(message, pubKey);
+
+        if (cipherFile != null) {
+            RSA.saveCipherText(cipherText, pubKey.getN(), cipherFile.getPath());
+            cipherText = RSA.loadCipherText(cipherFile.getPath());
+        }
+
+        byte[] decrypted = decrypt(cipherText, privKey);
+        if (!Arrays.equals(message, decrypted)) {
+            throw new IllegalStateException("Decrypted " + decrypted.length + " bytes do not match the "
+                    + message.length + " byte message with a " + pubKey.getN().bitLength() + " bit key");
+        }
+        bytes.add(message.length);
+        return cipherText.size();
+    }
+
+    /**
+     * Decrypts on the calling thread, since the cases already keep every
+     * thread busy
+     */
+    private static byte[] decrypt(List<BigInteger> cipherText, final PrivateKey privKey) {
+
+        DecryptionEvent event = new DecryptionEvent();
+        event.begin();
+        List<BigInteger> blocks = RSA.processBlocks(cipherText, new RSA.BlockOperation() {
+            @Override
+            public BigInteger apply(BigInteger c) {
+                return RSA.decrypt(c, privKey);
+            }
+        }, null);
+        byte[] plainText = BlockCodec.join(blocks, BlockCodec.blockBytes(privKey.getN()));
+        event.commit(privKey.getN(), blocks.size());
+        return plainText;
+    }
+
+    /**
+     * Generates the keys, and with file round trips saves and reloads them.
+     * Each key comes from its own Random seeded from the run seed, and its
+     * primes are searched on the thread generating it, so the same seed always
+     * gives the same keys.
+     */
+    private synchronized void prepareKeys() throws IOException {
+
+        if (keys != null) {
+            return;
+        }
+        if (fileRoundTrip) {
+            tempDir = Files.createTempDirectory("rsa-self-test").toFile();
+            tempDir.deleteOnExit();
+        }
+
+        Random random = new Random(seed);
+        List<Callable<KeyPair>> tasks = new ArrayList<Callable<KeyPair>>(keyCount);
+        for (int i = 0; i < keyCount; i++) {
+            final int digits = minDigits + random.nextInt(maxDigits - minDigits + 1);
+            final boolean fixedExponent = random.nextBoolean();
+            final long keySeed = random.nextLong();
+            tasks.add(new Callable<KeyPair>() {
+                @Override
+                public KeyPair call() {
+                    return RSA.generateKeyPair(digits, fixedExponent, new Random(keySeed), null, RSAListener.NONE);
+                }
+            });
+        }
+        // the keys are made on the common pool, one per thread
+        List<KeyPair> generated = RSA.invokeInOrder(tasks, null);
+
+        if (fileRoundTrip) {
+            for (int i = 0; i < keyCount; i++) {
+                String pubFileName = new File(tempDir, "pub-" + i + ".key").getPath();
+                String privFileName = new File(tempDir, "priv-" + i + ".key").getPath();
+                RSA.saveKey(generated.get(i).getPublicKey(), pubFileName);
+                RSA.saveKey(generated.get(i).getPrivateKey(), privFileName);
+                new File(pubFileName).deleteOnExit();
+                new File(privFileName).deleteOnExit();
+                generated.set(i,
+                        new KeyPair((PublicKey) RSA.readKey(pubFileName), (PrivateKey) RSA.readKey(privFileName)));
+            }
+        }
+        keys = generated.toArray(new KeyPair[keyCount]);
+    }
+
+    /**
+     * Spreads the case numbers over the seeds (SplitMix64)
+     */
+    private long caseSeed(long i) {
+        long z = seed + (i + 1) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * A failed case
+     */
+    public static class Failure implements Comparable<Failure> {
+
+        private final long caseNumber;
+        private final long caseSeed;
+        private final String reason;
+
+        Failure(long caseNumber, long caseSeed, String reason) {
+            this.caseNumber = caseNumber;
+            this.caseSeed = caseSeed;
+            this.reason = reason;
+        }
+
+        public long getCaseNumber() {
+            return caseNumber;
+        }
+
+        public long getCaseSeed() {
+            return caseSeed;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public int compareTo(Failure other) {
+            return Long.compare(caseNumber, other.caseNumber);
+        }
+
+        @Override
+        public String toString() {
+            return "case " + caseNumber + " (seed " + caseSeed + "): " + reason;
+        }
+    }
+
+    /**
+     * Outcome of a run
+     */
+    public static class Result {
+
+        private final long cases;
+        private final long failureCount;
+        private final List<Failure> failures;
+        private final long blocks;
+        private final long bytes;
+        private final long keyNanos;
+        private final long runNanos;
+        private final long seed;
+
+        Result(long cases, long failureCount, List<Failure> failures, long blocks, long bytes, long keyNanos,
+                long runNanos, long seed) {
+            this.cases = cases;
+            this.failureCount = failureCount;
+            this.failures = Collections.unmodifiableList(failures);
+            this.blocks = blocks;
+            this.bytes = bytes;
+            this.keyNanos = keyNanos;
+            this.runNanos = runNanos;
+            this.seed = seed;
+        }
+
+        public boolean isSuccess() {
+            return failureCount == 0;
+        }
+
+        public long getCases() {
+            return cases;
+        }
+
+        public long getFailureCount() {
+            return failureCount;
+        }
+
+        /**
+         * The first MAX_REPORTED_FAILURES failures, by case number
+         *
+         * @return
+         */
+        public List<Failure> getFailures() {
+            return failures;
+        }
+
+        public long getSeed() {
+            return seed;
+        }
+
+        public double getCasesPerSecond() {
+            return cases / Math.max(runNanos / 1e9, 1e-9);
+        }
+
+        @Override
+        public String toString() {
+
+            double seconds = runNanos / 1e9;
+            StringBuilder text = new StringBuilder();
+            text.append(String.format("%d/%d test cases succeeded in %.2fs (keys %.2fs), seed %d%n",
+                    cases - failureCount, cases, seconds, keyNanos / 1e9, seed));
+            text.append(String.format("%.1f cases/s, %.1f blocks/s, %.2f MB/s%n", getCasesPerSecond(),
+                    blocks / Math.max(seconds, 1e-9), bytes / Math.max(seconds, 1e-9) / 1e6));
+            for (Failure failure : failures) {
+                text.append(failure).append(String.format("%n"));
+            }
+            if (failureCount > failures.size()) {
+                text.append(String.format("... and %d more failures%n", failureCount - failures.size()));
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package rsa;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decrypts cipher text in the binary cipher text format from a stream and
+ * writes the plain text to a stream.
+ * 
+ * Blocks are read, decrypted and written one at a time. With an executor, up
+ * to window blocks are decrypted at the same time and written in their
+ * original order. Either way peak memory depends on the window, not on the
+ * size of the cipher text.
+ * 
+ * @author Eric
+ *
+ */
+public class StreamingDecryptor {
+
+    private final PrivateKey privKey;
+    private final ExecutorService executor;
+    private final int window;
+
+    /**
+     * Decrypts on the calling thread
+     * 
+     * @param privKey
+     */
+    public StreamingDecryptor(PrivateKey privKey) {
+        this(privKey, null, 1);
+    }
+
+    /**
+     * @param privKey
+     * @param executor
+     *            - decrypts blocks, or null to decrypt on the calling thread
+     * @param window
+     *            - most blocks in flight at once
+     */
+    public StreamingDecryptor(PrivateKey privKey, ExecutorService executor, int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("window must be > 0");
+        }
+        this.privKey = privKey;
+        this.executor = executor;
+        this.window = window;
+    }
+
+    /**
+     * Decrypts everything in the input and writes the plain text to out.
+     * Neither stream is closed. Throws an IOException if the cipher text has
+     * no blocks.
+     * 
+     * @param in
+     * @param out
+     * @return long - number of blocks decrypted
+     * @throws IOException
+     */
+    public long decrypt(InputStream in, OutputStream out) throws IOException {
+
+        DecryptionEvent event = new DecryptionEvent();
+        event.begin();
+        CipherTextReader reader = new CipherTextReader(in, (privKey.getN().bitLength() + 7) / 8);
+        BlockWriter writer = new BlockWriter(new BufferedOutputStream(out), reader.isLegacyEncoding());
+        long blocks = 0;
+
+        if (executor == null) {
+            // hold one block back so the last one can be unpadded
+            BigInteger previous = null;
+            BigInteger c;
+            while ((c = reader.readBlock()) != null) {
+                if (previous != null) {
+                    writer.write(previous, false);
+                }
+                previous = RSA.decrypt(c, privKey);
+                blocks++;
+            }
+            checkNotEmpty(reader, blocks);
+            if (previous != null) {
+                writer.write(previous, true);
+            }
+            writer.flush();
+            event.commit(privKey.getN(), blocks);
+            return blocks;
+        }
+
+        Queue<Future<BigInteger>> inFlight = new ArrayDeque<Future<BigInteger>>(window);
+        try {
+            BigInteger c;
+            while ((c = reader.readBlock()) != null) {
+                if (inFlight.size() == window) {
+                    writer.write(next(inFlight), false);
+                }
+                final BigInteger block = c;
+                inFlight.add(executor.submit(new Callable<BigInteger>() {
+                    @Override
+                    public BigInteger call() {
+                        return RSA.decrypt(block, privKey);
+                    }
+                }));
+                blocks++;
+            }
+            checkNotEmpty(reader, blocks);
+            while (!inFlight.isEmpty()) {
+                BigInteger m = next(inFlight);
+                writer.write(m, inFlight.isEmpty());
+            }
+        } finally {
+            for (Future<BigInteger> block : inFlight) {
+                block.cancel(false);
+            }
+        }
+        writer.flush();
+        event.commit(privKey.getN(), blocks);
+        return blocks;
+    }
+
+    /**
+     * Every message has at least one padded block, so cipher text without
+     * blocks was cut off. Legacy cipher text had no padding block.
+     */
+    private static void checkNotEmpty(CipherTextReader reader, long blocks) throws IOException {
+        if (blocks == 0 && !reader.isLegacyEncoding()) {
+            throw new IOException("Cipher text has no blocks");
+        }
+    }
+
+    /**
+     * Waits for the oldest block in flight
+     */
+    private static BigInteger next(Queue<Future<BigInteger>> inFlight) {
+        try {
+            return inFlight.remove().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for blocks", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Block failed", e.getCause());
+        }
+    }
+
+    /**
+     * Writes decrypted blocks, as BlockCodec bytes or as base 36 text for
+     * cipher text from before the byte encoding
+     */
+    private class BlockWriter {
+
+        private final OutputStream out;
+        private final boolean legacy;
+        private final int blockBytes;
+
+        BlockWriter(OutputStream out, boolean legacy) {
+            this.out = out;
+            this.legacy = legacy;
+            this.blockBytes = legacy ? 0 : BlockCodec.blockBytes(privKey.getN());
+        }
+
+        void write(BigInteger m, boolean last) throws IOException {
+            if (legacy) {
+                out.write(m.toString(36).getBytes(StandardCharsets.US_ASCII));
+                return;
+            }
+            BlockCodec.write(out, m, blockBytes, last);
+        }
+
+        void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package rsa;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Encrypts bytes from a stream and writes the cipher text to a stream in the
+ * binary cipher text format.
+ * 
+ * The input is packed into BlockCodec blocks as it is read. Each block is
+ * encrypted and written as soon as it is full, so memory use does not depend
+ * on the size of the input.
+ * 
+ * @author Eric
+ *
+ */
+public class StreamingEncryptor {
+
+    private final PublicKey pubKey;
+    private final int blockBytes;
+
+    public StreamingEncryptor(PublicKey pubKey) {
+        this.pubKey = pubKey;
+        this.blockBytes = BlockCodec.blockBytes(pubKey.getN());
+    }
+
+    /**
+     * Encrypts everything in the input and writes the cipher text to out.
+     * Neither stream is closed.
+     * 
+     * @param in
+     * @param out
+     * @return long - number of blocks written
+     * @throws IOException
+     */
+    public long encrypt(InputStream in, OutputStream out) throws IOException {
+
+        EncryptionEvent event = new EncryptionEvent();
+        event.begin();
+        CipherTextWriter writer = new CipherTextWriter(out, pubKey.getN(), CipherTextWriter.UNKNOWN_COUNT);
+        byte[] block = new byte[blockBytes];
+        long blocks = 0;
+
+        while (true) {
+            int length = fill(in, block);
+            blocks++;
+            if (length < blockBytes) {
+                // the last block is always padded, even when it is empty
+                writer.writeBlock(RSA.encryptBlock(BlockCodec.toLastBlock(block, length), pubKey));
+                break;
+            }
+            writer.writeBlock(RSA.encryptBlock(BlockCodec.toBlock(block), pubKey));
+        }
+
+        writer.flush();
+        event.commit(pubKey.getN(), blocks);
+        return blocks;
+    }
+
+    /**
+     * Reads until the block is full or the input ends
+     * 
+     * @return int - number of bytes read
+     */
+    private static int fill(InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        while (length < block.length) {
+            int read = in.read(block, length, block.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,89 @@
+package rsa;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Uses virtual threads when the JVM has them (Java 21 and later) and platform
+ * threads otherwise.
+ *
+ * The build targets Java 11, so the virtual thread API is looked up by
+ * reflection once and the fallback is a plain thread pool. Virtual threads
+ * are meant for threads that mostly wait, like one per connection; CPU-bound
+ * work still belongs on a fixed pool sized to the cores.
+ *
+ * @author Eric
+ *
+ */
+final class VirtualThreads {
+
+    /**
+     * Thread.ofVirtual().factory(), or null before Java 21
+     */
+    private static final ThreadFactory FACTORY = lookupFactory();
+
+    private VirtualThreads() {
+    }
+
+    static boolean isAvailable() {
+        return FACTORY != null;
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread per task, or a cached
+     * pool of platform threads from fallback when there are no virtual
+     * threads
+     *
+     * @param fallback
+     * @return
+     */
+    static ExecutorService newPerTaskExecutor(ThreadFactory fallback) {
+
+        if (FACTORY != null) {
+            try {
+                Method newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor",
+                        ThreadFactory.class);
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, FACTORY);
+            } catch (ReflectiveOperationException e) {
+                // fall through to platform threads
+            }
+        }
+        return Executors.newCachedThreadPool(fallback);
+    }
+
+    /**
+     * Returns an unstarted thread, virtual if possible and otherwise a
+     * platform daemon thread
+     *
+     * @param task
+     * @param name
+     * @return
+     */
+    static Thread newThread(Runnable task, String name) {
+
+        Thread thread;
+        if (FACTORY != null) {
+            thread = FACTORY.newThread(task);
+            thread.setName(name);
+        } else {
+            thread = new Thread(task, name);
+            thread.setDaemon(true);
+        }
+        return thread;
+    }
+
+    private static ThreadFactory lookupFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            // call through the public interface, the builder class itself is not accessible
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Padding edge cases of BlockCodec, without encryption and through RSA
+ *
+ * @author Eric
+ *
+ */
+class BlockCodecTest {
+
+    private static final BigInteger N = TestKeys.small().getPublicKey().getN();
+    private static final int BLOCK_BYTES = BlockCodec.blockBytes(N);
+
+    @Test
+    void emptyInputIsOnePaddingBlock() throws IOException {
+
+        List<BigInteger> blocks = BlockCodec.split(new byte[0], N);
+        assertEquals(1, blocks.size());
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    void exactMultipleOfBlockSizeGetsAPaddingBlock() throws IOException {
+
+        for (int count = 1; count <= 3; count++) {
+            byte[] data = bytes(count * BLOCK_BYTES, 1);
+            // the padding can't share a full block, so it gets its own
+            assertEquals(count + 1, BlockCodec.split(data, N).size());
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    void oneShortOfBlockSizeFitsInOneBlock() throws IOException {
+
+        byte[] data = bytes(BLOCK_BYTES - 1, 2);
+        assertEquals(1, BlockCodec.split(data, N).size());
+        assertRoundTrip(data);
+    }
+
+    @Test
+    void leadingZeroBytesAreKept() throws IOException {
+
+        for (int length : new int[] { 1, 5, BLOCK_BYTES - 1, BLOCK_BYTES, BLOCK_BYTES + 1, 3 * BLOCK_BYTES }) {
+            assertRoundTrip(new byte[length]);
+            byte[] data = bytes(length, 3);
+            Arrays.fill(data, 0, Math.min(length, 4), (byte) 0);
+            assertRoundTrip(data);
+        }
+    }
+
+    @Test
+    void trailingZeroAndPadBytesAreKept() throws IOException {
+
+        byte[] data = bytes(2 * BLOCK_BYTES + 7, 4);
+        Arrays.fill(data, data.length - 5, data.length, (byte) 0);
+        assertRoundTrip(data);
+        data[data.length - 1] = (byte) 0x80;
+        assertRoundTrip(data);
+    }
+
+    @Test
+    void blocksAreBelowTheModulus() {
+
+        byte[] data = new byte[4 * BLOCK_BYTES];
+        Arrays.fill(data, (byte) 0xFF);
+        for (BigInteger block : BlockCodec.split(data, N)) {
+            assertTrue(block.compareTo(N) < 0);
+        }
+    }
+
+    @Test
+    void missingPaddingIsRejected() {
+
+        final List<BigInteger> blocks = Collections.singletonList(BigInteger.ZERO);
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                BlockCodec.join(blocks, BLOCK_BYTES);
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                BlockCodec.join(Collections.<BigInteger> emptyList(), BLOCK_BYTES);
+            }
+        });
+    }
+
+    @Test
+    void encryptedRoundTrip() {
+
+        KeyPair keyPair = TestKeys.small();
+        for (int length : new int[] { 0, 1, BLOCK_BYTES, 2 * BLOCK_BYTES, 2 * BLOCK_BYTES + 1 }) {
+            byte[] data = bytes(length, length);
+            if (length > 0) {
+                data[0] = 0;
+            }
+            List<BigInteger> cipherText = RSA.encrypt(data, keyPair.getPublicKey());
+            assertArrayEquals(data, RSA.decryptAll(cipherText, keyPair.getPrivateKey(), null));
+        }
+    }
+
+    /**
+     * Checks that join and the streaming write both give the data back
+     */
+    private static void assertRoundTrip(byte[] data) throws IOException {
+
+        List<BigInteger> blocks = BlockCodec.split(data, N);
+        assertArrayEquals(data, BlockCodec.join(blocks, BLOCK_BYTES));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < blocks.size(); i++) {
+            BlockCodec.write(out, blocks.get(i), BLOCK_BYTES, i + 1 == blocks.size());
+        }
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    private static byte[] bytes(int length, int seed) {
+
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (31 * i + seed);
+        }
+        return data;
+    }
+}
@@ -0,0 +1,198 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The binary cipher text format and the older formats it still reads
+ *
+ * @author Eric
+ *
+ */
+class CipherTextFormatTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void savedCipherTextRoundTrip() throws IOException {
+
+        KeyPair keyPair = TestKeys.large();
+        BigInteger n = keyPair.getPublicKey().getN();
+        byte[] plainText = "The quick brown fox jumps over the lazy dog".repeat(10).getBytes(StandardCharsets.UTF_8);
+        List<BigInteger> cipherText = RSA.encrypt(plainText, keyPair.getPublicKey());
+
+        String file = dir.resolve("cipher.bin").toString();
+        RSA.saveCipherText(cipherText, n, file);
+        byte[] saved = Files.readAllBytes(dir.resolve("cipher.bin"));
+        // magic, version, width, count and the fixed width blocks
+        assertEquals(4 + 1 + 4 + 8 + cipherText.size() * ((n.bitLength() + 7) / 8), saved.length);
+        assertEquals(CipherTextWriter.VERSION, saved[4]);
+
+        List<BigInteger> loaded = RSA.loadCipherText(file);
+        assertEquals(cipherText, loaded);
+        assertArrayEquals(plainText, RSA.decryptAll(loaded, keyPair.getPrivateKey(), null));
+    }
+
+    @Test
+    void unknownBlockCountReadsToEnd() throws IOException {
+
+        BigInteger n = TestKeys.small().getPublicKey().getN();
+        // small blocks are written with leading zero bytes
+        List<BigInteger> blocks = Arrays.asList(BigInteger.ZERO, BigInteger.ONE, n.subtract(BigInteger.ONE),
+                BigInteger.valueOf(255));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CipherTextWriter writer = new CipherTextWriter(bytes, n, CipherTextWriter.UNKNOWN_COUNT);
+        for (BigInteger block : blocks) {
+            writer.writeBlock(block);
+        }
+        writer.close();
+
+        CipherTextReader reader = new CipherTextReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertEquals(CipherTextWriter.UNKNOWN_COUNT, reader.getBlockCount());
+        assertFalse(reader.isLegacyEncoding());
+        assertEquals(blocks, readAll(reader));
+    }
+
+    @Test
+    void legacyVersionBlocksHoldBase36Text() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        BigInteger n = keyPair.getPublicKey().getN();
+        String[] words = { "hello", "legacy", "world" };
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int width = (n.bitLength() + 7) / 8;
+        writeHeader(out, CipherTextReader.LEGACY_VERSION, width, words.length);
+        for (String word : words) {
+            BigInteger c = RSA.encryptBlock(new BigInteger(word, 36), keyPair.getPublicKey());
+            out.write(BlockCodec.fromBlock(c, width));
+        }
+        Path file = dir.resolve("legacy.bin");
+        Files.write(file, bytes.toByteArray());
+
+        CipherTextReader reader = new CipherTextReader(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(reader.isLegacyEncoding());
+        reader.close();
+
+        List<BigInteger> loaded = RSA.loadCipherText(file.toString());
+        assertEquals("hellolegacyworld", RSA.decryptLegacyText(loaded, keyPair.getPrivateKey()));
+    }
+
+    @Test
+    void decimalLinesAreStillRead() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        List<BigInteger> cipherText = RSA.encrypt("decimal lines", keyPair.getPublicKey());
+
+        StringBuilder text = new StringBuilder();
+        for (BigInteger c : cipherText) {
+            text.append(c).append(System.lineSeparator()).append(System.lineSeparator());
+        }
+        Path file = dir.resolve("cipher.txt");
+        Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+
+        List<BigInteger> loaded = RSA.loadCipherText(file.toString());
+        assertEquals(cipherText, loaded);
+        assertArrayEquals("decimal lines".getBytes(StandardCharsets.UTF_8),
+                RSA.decryptAll(loaded, keyPair.getPrivateKey(), null));
+    }
+
+    @Test
+    void badBlockWidthIsRejected() throws IOException {
+
+        for (int width : new int[] { 0, -1, CipherTextReader.MAX_BLOCK_WIDTH + 1, Integer.MAX_VALUE }) {
+            assertThrows(IOException.class, reading(header(CipherTextWriter.VERSION, width, 1)));
+        }
+        assertThrows(IOException.class, reading(header(CipherTextWriter.VERSION, 129, 1), 128));
+        assertThrows(IOException.class, reading(header(3, 128, 1), 128));
+    }
+
+    @Test
+    void truncatedBlockIsRejected() throws IOException {
+
+        BigInteger n = TestKeys.small().getPublicKey().getN();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        CipherTextWriter writer = new CipherTextWriter(bytes, n, 2);
+        writer.writeBlock(BigInteger.TEN);
+        writer.writeBlock(BigInteger.TEN);
+        writer.close();
+        byte[] cut = Arrays.copyOf(bytes.toByteArray(), bytes.size() - 1);
+
+        final CipherTextReader reader = new CipherTextReader(new ByteArrayInputStream(cut));
+        assertEquals(BigInteger.TEN, reader.readBlock());
+        assertThrows(EOFException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                reader.readBlock();
+            }
+        });
+    }
+
+    private static List<BigInteger> readAll(CipherTextReader reader) throws IOException {
+
+        List<BigInteger> blocks = new ArrayList<BigInteger>();
+        BigInteger c;
+        while ((c = reader.readBlock()) != null) {
+            blocks.add(c);
+        }
+        assertNull(reader.readBlock());
+        reader.close();
+        return blocks;
+    }
+
+    private static Executable reading(final byte[] bytes) {
+        return new Executable() {
+            @Override
+            public void execute() throws IOException {
+                new CipherTextReader(new ByteArrayInputStream(bytes));
+            }
+        };
+    }
+
+    private static Executable reading(final byte[] bytes, final int maxBlockWidth) {
+        return new Executable() {
+            @Override
+            public void execute() throws IOException {
+                new CipherTextReader(new ByteArrayInputStream(bytes), maxBlockWidth);
+            }
+        };
+    }
+
+    private static byte[] header(int version, int width, long count) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeHeader(new DataOutputStream(bytes), version, width, count);
+        return bytes.toByteArray();
+    }
+
+    private static void writeHeader(DataOutputStream out, int version, int width, long count) throws IOException {
+        out.writeInt(CipherTextWriter.MAGIC);
+        out.writeByte(version);
+        out.writeInt(width);
+        out.writeLong(count);
+    }
+}
@@ -0,0 +1,129 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * HybridCipher round trips and the changes it has to detect
+ *
+ * @author Eric
+ *
+ */
+class HybridCipherTest {
+
+    private static final int CHUNK = HybridCipher.CHUNK_SIZE;
+    private static final int TAG_BYTES = 16;
+
+    @Test
+    void roundTrip() throws IOException {
+
+        for (int length : new int[] { 0, 1, CHUNK - 1, CHUNK, CHUNK + 1, 2 * CHUNK + 5 }) {
+            byte[] plainText = random(length);
+            assertArrayEquals(plainText, decrypt(encrypt(plainText)), length + " bytes");
+        }
+    }
+
+    @Test
+    void changedByteIsDetected() throws IOException {
+
+        byte[] cipherText = encrypt(random(2 * CHUNK + 5));
+        int wrappedKey = headerLength() - 1;
+        int firstFlag = headerLength();
+        int firstData = firstFlag + 5;
+        int firstTag = firstData + CHUNK + TAG_BYTES - 1;
+        int lastByte = cipherText.length - 1;
+
+        for (int position : new int[] { wrappedKey, firstFlag, firstData, firstTag, lastByte }) {
+            byte[] changed = cipherText.clone();
+            changed[position] ^= 1;
+            assertRejected(changed);
+        }
+    }
+
+    @Test
+    void truncationIsDetected() throws IOException {
+
+        byte[] cipherText = encrypt(random(2 * CHUNK + 5));
+        int firstChunkEnd = headerLength() + 5 + CHUNK + TAG_BYTES;
+        int secondChunkEnd = firstChunkEnd + 5 + CHUNK + TAG_BYTES;
+
+        // cut at chunk boundaries, inside a chunk and inside the header
+        for (int length : new int[] { firstChunkEnd, secondChunkEnd, secondChunkEnd + 3, cipherText.length - 1,
+                headerLength(), 10 }) {
+            assertRejected(Arrays.copyOf(cipherText, length));
+        }
+    }
+
+    @Test
+    void swappedChunksAreDetected() throws IOException {
+
+        byte[] cipherText = encrypt(random(3 * CHUNK + 5));
+        int chunkLength = 5 + CHUNK + TAG_BYTES;
+        int first = headerLength();
+        int second = first + chunkLength;
+
+        byte[] swapped = cipherText.clone();
+        System.arraycopy(cipherText, first, swapped, second, chunkLength);
+        System.arraycopy(cipherText, second, swapped, first, chunkLength);
+        assertRejected(swapped);
+    }
+
+    @Test
+    void otherKeyIsRejected() throws IOException {
+
+        final byte[] cipherText = encrypt(random(100));
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                HybridCipher.decrypt(new ByteArrayInputStream(cipherText), TestKeys.small().getPrivateKey(),
+                        new ByteArrayOutputStream());
+            }
+        });
+    }
+
+    private static void assertRejected(final byte[] cipherText) {
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                decrypt(cipherText);
+            }
+        });
+    }
+
+    private static byte[] encrypt(byte[] plainText) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HybridCipher.encrypt(new ByteArrayInputStream(plainText), TestKeys.large().getPublicKey(), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(byte[] cipherText) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HybridCipher.decrypt(new ByteArrayInputStream(cipherText), TestKeys.large().getPrivateKey(), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Magic number, version, wrapped key length and the wrapped key
+     */
+    private static int headerLength() {
+        return 4 + 1 + 4 + (TestKeys.large().getPublicKey().getN().bitLength() + 7) / 8;
+    }
+
+    private static byte[] random(int length) {
+
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
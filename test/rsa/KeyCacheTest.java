@@ -0,0 +1,169 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Hits, staleness, invalidation and eviction of KeyCache
+ *
+ * @author Eric
+ *
+ */
+class KeyCacheTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void secondGetIsAHitWithItsOwnCopy() throws IOException {
+
+        KeyCache cache = new KeyCache(4);
+        CountingLoader loader = new CountingLoader();
+        String file = keyFile("a.key", "1");
+
+        PublicKey first = (PublicKey) cache.get(file, loader);
+        PublicKey second = (PublicKey) cache.get(file, loader);
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertNotSame(first, second);
+
+        // changing a loaded key doesn't change what the next caller gets
+        first.setN(BigInteger.TEN);
+        assertEquals(BigInteger.ONE, ((PublicKey) cache.get(file, loader)).getN());
+    }
+
+    @Test
+    void changedFileIsLoadedAgain() throws IOException {
+
+        KeyCache cache = new KeyCache(4);
+        CountingLoader loader = new CountingLoader();
+        String file = keyFile("a.key", "1");
+        cache.get(file, loader);
+
+        // same length, only the modification time differs
+        Path path = dir.resolve("a.key");
+        Files.write(path, "2".getBytes());
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+        assertEquals(BigInteger.TWO, ((PublicKey) cache.get(file, loader)).getN());
+
+        // different length, same modification time
+        FileTime time = Files.getLastModifiedTime(path);
+        Files.write(path, "33".getBytes());
+        Files.setLastModifiedTime(path, time);
+        assertEquals(BigInteger.valueOf(33), ((PublicKey) cache.get(file, loader)).getN());
+        assertEquals(3, loader.loads.get());
+    }
+
+    @Test
+    void invalidatedFileIsLoadedAgain() throws IOException {
+
+        KeyCache cache = new KeyCache(4);
+        CountingLoader loader = new CountingLoader();
+        String file = keyFile("a.key", "1");
+        cache.get(file, loader);
+
+        // rewritten within the timestamp resolution, so only invalidate notices
+        Path path = dir.resolve("a.key");
+        FileTime time = Files.getLastModifiedTime(path);
+        Files.write(path, "2".getBytes());
+        Files.setLastModifiedTime(path, time);
+        cache.invalidate(file);
+
+        assertEquals(BigInteger.TWO, ((PublicKey) cache.get(file, loader)).getN());
+        assertEquals(2, loader.loads.get());
+    }
+
+    @Test
+    void loadRacingWithInvalidateIsNotCached() throws IOException {
+
+        final KeyCache cache = new KeyCache(4);
+        final String file = keyFile("a.key", "1");
+        KeyCache.Loader racing = new KeyCache.Loader() {
+            @Override
+            public Object load(String fileName) throws IOException {
+                // a save finishes while this load is running
+                cache.invalidate(fileName);
+                return new PublicKey(BigInteger.ONE, BigInteger.ONE);
+            }
+        };
+
+        cache.get(file, racing);
+        assertEquals(0, cache.size());
+        CountingLoader loader = new CountingLoader();
+        cache.get(file, loader);
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedIsEvicted() throws IOException {
+
+        KeyCache cache = new KeyCache(2);
+        CountingLoader loader = new CountingLoader();
+        String a = keyFile("a.key", "1");
+        String b = keyFile("b.key", "2");
+        String c = keyFile("c.key", "3");
+
+        cache.get(a, loader);
+        cache.get(b, loader);
+        cache.get(a, loader);
+        cache.get(c, loader);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+
+        // a was used after b, so b went
+        cache.get(a, loader);
+        assertEquals(3, loader.loads.get());
+        cache.get(b, loader);
+        assertEquals(4, loader.loads.get());
+    }
+
+    @Test
+    void savedKeyReplacesTheCachedOne() throws IOException {
+
+        String file = dir.resolve("saved.key").toString();
+        RSA.saveKey(TestKeys.small().getPublicKey(), file);
+        Path path = dir.resolve("saved.key");
+        FileTime time = Files.getLastModifiedTime(path);
+        assertEquals(TestKeys.small().getPublicKey().getN(), ((PublicKey) RSA.loadKey(file)).getN());
+
+        PublicKey other = new PublicKey(TestKeys.small().getPublicKey().getN().add(BigInteger.TWO),
+                RSA.PUBLIC_EXPONENT);
+        RSA.saveKey(other, file);
+        // same length, and the same time as on a file system with coarse timestamps
+        Files.setLastModifiedTime(path, time);
+        assertEquals(other.getN(), ((PublicKey) RSA.loadKey(file)).getN());
+    }
+
+    /**
+     * Writes a file holding a number, loaded as a public key with that modulus
+     */
+    private String keyFile(String name, String number) throws IOException {
+        Path file = dir.resolve(name);
+        Files.write(file, number.getBytes());
+        return file.toString();
+    }
+
+    private static class CountingLoader implements KeyCache.Loader {
+
+        private final AtomicInteger loads = new AtomicInteger();
+
+        @Override
+        public Object load(String fileName) throws IOException {
+            loads.incrementAndGet();
+            BigInteger n = new BigInteger(new String(Files.readAllBytes(Path.of(fileName))));
+            return new PublicKey(n, BigInteger.ONE);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * The binary key format and the serialized keys it replaced
+ *
+ * @author Eric
+ *
+ */
+class KeyCodecTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void publicKeyRoundTrip() throws IOException {
+
+        PublicKey pubKey = TestKeys.large().getPublicKey();
+        assertPublicKey(pubKey, roundTrip(pubKey));
+    }
+
+    @Test
+    void privateKeyRoundTrip() throws IOException {
+
+        PrivateKey privKey = TestKeys.large().getPrivateKey();
+        assertPrivateKey(privKey, roundTrip(privKey));
+    }
+
+    @Test
+    void privateKeyWithoutPrimesRoundTrip() throws IOException {
+
+        PrivateKey privKey = TestKeys.small().getPrivateKey();
+        PrivateKey plainKey = new PrivateKey(privKey.getN(), privKey.getD(), null, null, null, null, null);
+        PrivateKey read = (PrivateKey) roundTrip(plainKey);
+        assertEquals(privKey.getN(), read.getN());
+        assertEquals(privKey.getD(), read.getD());
+        assertEquals(null, read.getP());
+        assertEquals(null, read.getQ());
+    }
+
+    @Test
+    void savedKeysAreReadBack() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        String pubFile = dir.resolve("pub.key").toString();
+        String privFile = dir.resolve("priv.key").toString();
+        RSA.saveKey(keyPair.getPublicKey(), pubFile);
+        RSA.saveKey(keyPair.getPrivateKey(), privFile);
+
+        assertTrue(KeyCodec.isKeyFile(Files.readAllBytes(dir.resolve("pub.key"))));
+        assertPublicKey(keyPair.getPublicKey(), RSA.readKey(pubFile));
+        assertPrivateKey(keyPair.getPrivateKey(), RSA.readKey(privFile));
+    }
+
+    @Test
+    void serializedKeysAreStillRead() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        PrivateKey privKey = keyPair.getPrivateKey();
+        // saved before the CRT parameters existed
+        PrivateKey oldKey = new PrivateKey(privKey.getN(), privKey.getD(), privKey.getP(), privKey.getQ(), null,
+                null, null);
+        Path pubFile = serialize(keyPair.getPublicKey(), "old-pub.key");
+        Path privFile = serialize(oldKey, "old-priv.key");
+
+        assertPublicKey(keyPair.getPublicKey(), RSA.readKey(pubFile.toString()));
+        assertPrivateKey(privKey, RSA.readKey(privFile.toString()));
+    }
+
+    @Test
+    void migratedKeyIsInBinaryFormat() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        Path privFile = serialize(keyPair.getPrivateKey(), "migrate.key");
+        RSA.migrateKey(privFile.toString());
+
+        byte[] migrated = Files.readAllBytes(privFile);
+        assertTrue(KeyCodec.isKeyFile(migrated));
+        assertPrivateKey(keyPair.getPrivateKey(), KeyCodec.read(new ByteArrayInputStream(migrated)));
+    }
+
+    @Test
+    void badHeadersAreRejected() throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KeyCodec.write(TestKeys.small().getPublicKey(), bytes);
+        byte[] good = bytes.toByteArray();
+
+        byte[] badMagic = good.clone();
+        badMagic[0] ^= 1;
+        byte[] badVersion = good.clone();
+        badVersion[4] = (byte) (KeyCodec.VERSION + 1);
+        byte[] badType = good.clone();
+        badType[5] = 9;
+        byte[] cut = Arrays.copyOf(good, good.length - 1);
+
+        for (final byte[] bad : new byte[][] { badMagic, badVersion, badType, cut }) {
+            assertThrows(IOException.class, new Executable() {
+                @Override
+                public void execute() throws IOException {
+                    KeyCodec.read(new ByteArrayInputStream(bad));
+                }
+            });
+        }
+    }
+
+    @Test
+    void hugeNumberLengthIsRejectedBeforeAllocating() throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(KeyCodec.MAGIC);
+        out.writeByte(KeyCodec.VERSION);
+        out.writeByte(KeyCodec.PUBLIC_KEY);
+        out.writeInt(Integer.MAX_VALUE);
+        out.flush();
+        final byte[] header = bytes.toByteArray();
+
+        IOException e = assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                KeyCodec.read(new ByteArrayInputStream(header));
+            }
+        });
+        assertTrue(e.getMessage().startsWith("Bad number length"), e.getMessage());
+    }
+
+    private static Object roundTrip(Object key) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        KeyCodec.write(key, bytes);
+        assertTrue(KeyCodec.isKeyFile(bytes.toByteArray()));
+        return KeyCodec.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private Path serialize(Object key, String name) throws IOException {
+
+        Path file = dir.resolve(name);
+        OutputStream fileOut = Files.newOutputStream(file);
+        ObjectOutputStream out = new ObjectOutputStream(fileOut);
+        try {
+            out.writeObject(key);
+        } finally {
+            out.close();
+        }
+        assertTrue(KeyCodec.isSerialized(Files.readAllBytes(file)));
+        return file;
+    }
+
+    private static void assertPublicKey(PublicKey expected, Object actual) {
+
+        PublicKey pubKey = (PublicKey) actual;
+        assertEquals(expected.getN(), pubKey.getN());
+        assertEquals(expected.getE(), pubKey.getE());
+    }
+
+    private static void assertPrivateKey(PrivateKey expected, Object actual) {
+
+        PrivateKey privKey = (PrivateKey) actual;
+        assertArrayEquals(
+                new BigInteger[] { expected.getN(), expected.getD(), expected.getP(), expected.getQ(),
+                        expected.getDP(), expected.getDQ(), expected.getQInv() },
+                new BigInteger[] { privKey.getN(), privKey.getD(), privKey.getP(), privKey.getQ(), privKey.getDP(),
+                        privKey.getDQ(), privKey.getQInv() });
+    }
+}
@@ -0,0 +1,117 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Hits, misses and refills of KeyPairPool
+ *
+ * @author Eric
+ *
+ */
+class KeyPairPoolTest {
+
+    /**
+     * Small enough that a refill takes milliseconds
+     */
+    private static final int DIGITS = 20;
+
+    @Test
+    void takeFromEmptyPoolIsAMiss() {
+
+        KeyPairPool pool = new KeyPairPool(4, 1, 1, true);
+        try {
+            KeyPair keyPair = pool.take(DIGITS);
+            assertNotNull(keyPair.getPrivateKey().getQInv());
+            assertEquals(RSA.PUBLIC_EXPONENT, keyPair.getPublicKey().getE());
+            assertEquals(0, pool.getHits());
+            assertEquals(1, pool.getMisses());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void prefilledPoolHits() throws InterruptedException {
+
+        KeyPairPool pool = new KeyPairPool(4, 1, 2, true);
+        try {
+            pool.prefill(DIGITS);
+            awaitAvailable(pool, 4);
+            pool.take(DIGITS);
+            assertEquals(1, pool.getHits());
+            assertEquals(0, pool.getMisses());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void takesBelowLowWaterMarkRefill() throws InterruptedException {
+
+        KeyPairPool pool = new KeyPairPool(4, 2, 1, false);
+        try {
+            pool.prefill(DIGITS);
+            awaitAvailable(pool, 4);
+            // 3 left is above the mark, 2 left starts a refill
+            pool.take(DIGITS);
+            pool.take(DIGITS);
+            awaitAvailable(pool, 4);
+            assertEquals(2, pool.getHits());
+            assertEquals(0, pool.getMisses());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void shutDownPoolStillHandsOutKeyPairs() throws InterruptedException {
+
+        final KeyPairPool pool = new KeyPairPool(2, 0, 1, true);
+        pool.prefill(DIGITS);
+        awaitAvailable(pool, 2);
+        pool.shutdown();
+
+        assertThrows(IllegalStateException.class, new Executable() {
+            @Override
+            public void execute() {
+                pool.prefill(DIGITS);
+            }
+        });
+        // two hits, then a miss generated on this thread
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(pool.take(DIGITS));
+        }
+        assertEquals(2, pool.getHits());
+        assertEquals(1, pool.getMisses());
+        assertEquals(0, pool.available(DIGITS));
+    }
+
+    @Test
+    void badSizesAreRejected() {
+
+        int[][] bad = { { 0, 0, 1 }, { 2, -1, 1 }, { 2, 2, 1 }, { 2, 1, 0 } };
+        for (final int[] args : bad) {
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                @Override
+                public void execute() {
+                    new KeyPairPool(args[0], args[1], args[2], true);
+                }
+            });
+        }
+    }
+
+    private static void awaitAvailable(KeyPairPool pool, int count) throws InterruptedException {
+
+        long deadline = System.currentTimeMillis() + 30000;
+        while (pool.available(DIGITS) < count) {
+            assertTrue(System.currentTimeMillis() < deadline, "pool never reached " + count);
+            Thread.sleep(5);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Bucket boundaries and percentiles of LatencyHistogram
+ *
+ * @author Eric
+ *
+ */
+class LatencyHistogramTest {
+
+    private static final int LAST_BUCKET = LatencyHistogram.bucket(Long.MAX_VALUE);
+
+    @Test
+    void smallValuesHaveABucketEach() {
+
+        for (int value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.bucket(value));
+            assertEquals(value, LatencyHistogram.highestValue(value));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguous() {
+
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValue(LAST_BUCKET));
+        for (int bucket = 0; bucket < LAST_BUCKET; bucket++) {
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertEquals(bucket, LatencyHistogram.bucket(highest), "top of bucket " + bucket);
+            assertEquals(bucket + 1, LatencyHistogram.bucket(highest + 1), "past bucket " + bucket);
+        }
+    }
+
+    @Test
+    void bucketsAreWithinOneThirtySecond() {
+
+        for (int bucket = 32; bucket <= LAST_BUCKET; bucket++) {
+            long lowest = LatencyHistogram.highestValue(bucket - 1) + 1;
+            long highest = LatencyHistogram.highestValue(bucket);
+            assertTrue(highest - lowest <= lowest / 32, "bucket " + bucket + ": " + lowest + " to " + highest);
+        }
+    }
+
+    @Test
+    void randomValuesFallInsideTheirBucket() {
+
+        Random random = new Random(19);
+        for (int i = 0; i < 100000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.highestValue(bucket), String.valueOf(value));
+            assertTrue(bucket == 0 || value > LatencyHistogram.highestValue(bucket - 1), String.valueOf(value));
+        }
+    }
+
+    @Test
+    void percentilesOfKnownValues() {
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value * 1000L);
+        }
+        histogram.record(-5);
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1001, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(0, snapshot.getPercentile(0));
+        assertEquals(1000000, snapshot.getPercentile(100));
+        // the top of the bucket, at most 1/32 above the value
+        long p50 = snapshot.getPercentile(50);
+        assertTrue(p50 >= 500000 && p50 <= 500000 + 500000 / 32, String.valueOf(p50));
+        long p99 = snapshot.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 990000 + 990000 / 32, String.valueOf(p99));
+    }
+
+    @Test
+    void emptySnapshot() {
+
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(99));
+        assertEquals(0.0, snapshot.getMean());
+    }
+}
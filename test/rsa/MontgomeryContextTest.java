@@ -0,0 +1,76 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * MontgomeryContext.modPow against BigInteger.modPow
+ *
+ * @author Eric
+ *
+ */
+class MontgomeryContextTest {
+
+    @Test
+    void matchesBigIntegerForRandomOperands() {
+
+        Random random = new Random(7);
+        // one limb, limb boundaries and RSA sizes
+        int[] bitLengths = { 3, 31, 32, 33, 63, 64, 65, 127, 512, 1024, 2048 };
+        for (int bits : bitLengths) {
+            BigInteger n = new BigInteger(bits, random).setBit(bits - 1).setBit(0);
+            MontgomeryContext context = new MontgomeryContext(n);
+            for (int i = 0; i < 10; i++) {
+                BigInteger base = new BigInteger(bits + 8, random);
+                BigInteger exponent = new BigInteger(1 + random.nextInt(bits + 16), random);
+                assertEquals(base.modPow(exponent, n), context.modPow(base, exponent),
+                        bits + " bits: " + base + "^" + exponent);
+            }
+        }
+    }
+
+    @Test
+    void matchesBigIntegerForEdgeOperands() {
+
+        BigInteger n = TestKeys.small().getPublicKey().getN();
+        MontgomeryContext context = new MontgomeryContext(n);
+        BigInteger nMinusOne = n.subtract(BigInteger.ONE);
+        BigInteger[] bases = { BigInteger.ZERO, BigInteger.ONE, BigInteger.TWO, nMinusOne, n, n.add(BigInteger.ONE) };
+        BigInteger[] exponents = { BigInteger.ZERO, BigInteger.ONE, BigInteger.TWO, RSA.PUBLIC_EXPONENT, nMinusOne };
+        for (BigInteger base : bases) {
+            for (BigInteger exponent : exponents) {
+                assertEquals(base.modPow(exponent, n), context.modPow(base, exponent), base + "^" + exponent);
+            }
+        }
+    }
+
+    @Test
+    void decryptsWithPrivateExponent() {
+
+        KeyPair keyPair = TestKeys.large();
+        BigInteger n = keyPair.getPublicKey().getN();
+        MontgomeryContext context = new MontgomeryContext(n);
+        BigInteger m = new BigInteger(n.bitLength() - 1, new Random(8));
+        BigInteger c = context.modPow(m, keyPair.getPublicKey().getE());
+        assertEquals(m, context.modPow(c, keyPair.getPrivateKey().getD()));
+    }
+
+    @Test
+    void rejectsEvenOrTinyModulus() {
+
+        for (final long modulus : new long[] { 10, 1, 0, -7 }) {
+            assertThrows(IllegalArgumentException.class, new Executable() {
+                @Override
+                public void execute() {
+                    new MontgomeryContext(BigInteger.valueOf(modulus));
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The sieve's residues and the primes PrimeSearch finds
+ *
+ * @author Eric
+ *
+ */
+class PrimeSearchTest {
+
+    /**
+     * The odd primes the sieve uses, found here independently
+     */
+    private static final int[] ODD_PRIMES = oddPrimes(PrimeSearch.smallPrimeResidues(BigInteger.ONE).length);
+
+    @Test
+    void residuesMatchBigIntegerMod() {
+
+        Random random = new Random(5);
+        // below, at and above word boundaries, and RSA sizes
+        int[] bitLengths = { 1, 2, 31, 32, 33, 63, 64, 65, 95, 96, 97, 160, 512, 1024, 1025, 2048 };
+        for (int bits : bitLengths) {
+            for (int i = 0; i < 5; i++) {
+                assertResidues(new BigInteger(bits, random).setBit(bits - 1));
+            }
+        }
+    }
+
+    @Test
+    void residuesOfEdgeValues() {
+
+        assertResidues(BigInteger.ZERO);
+        assertResidues(BigInteger.ONE);
+        // toByteArray adds a sign byte when the top bit of a byte is set
+        assertResidues(BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE));
+        assertResidues(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE));
+        assertResidues(BigInteger.ONE.shiftLeft(1023));
+        // multiples of the small primes have residue 0
+        BigInteger product = BigInteger.ONE;
+        for (int k = 0; k < 40; k++) {
+            product = product.multiply(BigInteger.valueOf(ODD_PRIMES[k]));
+        }
+        assertResidues(product);
+        assertResidues(BigInteger.valueOf(ODD_PRIMES[ODD_PRIMES.length - 1]));
+    }
+
+    @Test
+    void windowFindsPrimesOfTheRightLength() {
+
+        Random random = new Random(6);
+        for (int bits : new int[] { 32, 64, 128, 512 }) {
+            BigInteger prime = null;
+            while (prime == null) {
+                prime = PrimeSearch.searchWindow(bits, RSA.PUBLIC_EXPONENT, random, null, null);
+            }
+            assertEquals(bits, prime.bitLength());
+            assertTrue(prime.isProbablePrime(100));
+            assertEquals(BigInteger.ONE, prime.subtract(BigInteger.ONE).gcd(RSA.PUBLIC_EXPONENT));
+        }
+    }
+
+    @Test
+    void seededSearchWithoutExecutorRepeats() {
+
+        BigInteger[] first = PrimeSearch.findPrimePair(256, null, new Random(7), null);
+        BigInteger[] second = PrimeSearch.findPrimePair(256, null, new Random(7), null);
+        assertArrayEquals(first, second);
+        assertNotEquals(first[0], first[1]);
+    }
+
+    @Test
+    void concurrentSearchFindsTwoDistinctPrimes() {
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int bits : new int[] { 16, 256 }) {
+                BigInteger[] primes = PrimeSearch.findPrimePair(bits, RSA.PUBLIC_EXPONENT, new Random(8), executor);
+                assertNotEquals(primes[0], primes[1]);
+                for (BigInteger prime : primes) {
+                    assertEquals(bits, prime.bitLength());
+                    assertTrue(prime.isProbablePrime(100));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void assertResidues(BigInteger n) {
+
+        int[] residues = PrimeSearch.smallPrimeResidues(n);
+        for (int j = 0; j < ODD_PRIMES.length; j++) {
+            assertEquals(n.mod(BigInteger.valueOf(ODD_PRIMES[j])).intValue(), residues[j],
+                    n + " mod " + ODD_PRIMES[j]);
+        }
+    }
+
+    private static int[] oddPrimes(int count) {
+
+        int[] primes = new int[count];
+        int found = 0;
+        for (int i = 3; found < count; i += 2) {
+            if (BigInteger.valueOf(i).isProbablePrime(50)) {
+                primes[found++] = i;
+            }
+        }
+        return primes;
+    }
+}
@@ -0,0 +1,129 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Contexts bound by an RSAEngine, with and without an executor
+ *
+ * @author Eric
+ *
+ */
+class RSAKeyContextTest {
+
+    @Test
+    void roundTripOnCallingThread() {
+
+        RSAKeyContext context = new RSAEngine().bind(TestKeys.large());
+        byte[] plainText = random(1000);
+        assertArrayEquals(plainText, context.decrypt(context.encrypt(plainText)));
+    }
+
+    @Test
+    void roundTripOnExecutor() {
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            RSAKeyContext context = new RSAEngine(new SecureRandom(), executor, null).bind(TestKeys.large());
+            byte[] plainText = random(5000);
+            List<BigInteger> cipherText = context.encrypt(plainText);
+            // the blocks come back in order, so the static API reads them too
+            assertArrayEquals(plainText, RSA.decryptAll(cipherText, TestKeys.large().getPrivateKey(), null));
+            assertArrayEquals(plainText, context.decrypt(cipherText));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void decryptsLikeTheStaticApi() {
+
+        PrivateKey privKey = TestKeys.small().getPrivateKey();
+        PrivateKey plainKey = new PrivateKey(privKey.getN(), privKey.getD(), null, null, null, null, null);
+        RSAEngine engine = new RSAEngine();
+        RSAKeyContext crt = engine.bind(privKey);
+        RSAKeyContext plain = engine.bind(plainKey);
+
+        Random random = new Random(11);
+        for (int i = 0; i < 20; i++) {
+            BigInteger c = new BigInteger(privKey.getN().bitLength() - 1, random);
+            assertEquals(RSA.decrypt(c, privKey), crt.decryptBlock(c));
+            assertEquals(RSA.decrypt(c, privKey), plain.decryptBlock(c));
+        }
+    }
+
+    @Test
+    void keyChangesAfterBindAreIgnored() {
+
+        KeyPair keyPair = TestKeys.small();
+        PublicKey pubKey = new PublicKey(keyPair.getPublicKey().getN(), keyPair.getPublicKey().getE());
+        RSAKeyContext context = new RSAEngine().bind(pubKey);
+        pubKey.setE(BigInteger.valueOf(3));
+
+        BigInteger m = BigInteger.valueOf(12345);
+        assertEquals(RSA.encryptBlock(m, keyPair.getPublicKey()), context.encryptBlock(m));
+    }
+
+    @Test
+    void contextOnlyDoesWhatItsKeyAllows() {
+
+        final RSAKeyContext encryptOnly = new RSAEngine().bind(TestKeys.small().getPublicKey());
+        final RSAKeyContext decryptOnly = new RSAEngine().bind(TestKeys.small().getPrivateKey());
+        assertTrue(encryptOnly.canEncrypt());
+        assertFalse(encryptOnly.canDecrypt());
+        assertFalse(decryptOnly.canEncrypt());
+        assertTrue(decryptOnly.canDecrypt());
+
+        assertThrows(IllegalStateException.class, new Executable() {
+            @Override
+            public void execute() {
+                encryptOnly.decryptBlock(BigInteger.ONE);
+            }
+        });
+        assertThrows(IllegalStateException.class, new Executable() {
+            @Override
+            public void execute() {
+                decryptOnly.encryptBlock(BigInteger.ONE);
+            }
+        });
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                decryptOnly.decrypt(Collections.<BigInteger> emptyList());
+            }
+        });
+    }
+
+    @Test
+    void mismatchedKeysAreRejected() {
+
+        final KeyPair mixed = new KeyPair(TestKeys.small().getPublicKey(), TestKeys.large().getPrivateKey());
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new RSAEngine().bind(mixed);
+            }
+        });
+    }
+
+    private static byte[] random(int length) {
+
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+}
@@ -0,0 +1,103 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Requests to a server on a free localhost port
+ *
+ * @author Eric
+ *
+ */
+class RSAServerTest {
+
+    private static final byte[] PLAIN_TEXT = "served over localhost".getBytes(StandardCharsets.UTF_8);
+
+    private RSAServer server;
+    private RSAClient client;
+    private int blockWidth;
+
+    @BeforeEach
+    void start() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        blockWidth = (keyPair.getPublicKey().getN().bitLength() + 7) / 8;
+        server = new RSAServer(0, 2, 8);
+        server.addPublicKey("test", keyPair.getPublicKey());
+        server.addPrivateKey("test", keyPair.getPrivateKey());
+        server.start();
+        client = new RSAClient(server.getPort());
+    }
+
+    @AfterEach
+    void stop() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void encryptAndDecryptRoundTrip() throws IOException {
+
+        byte[] cipherText = client.encrypt("test", PLAIN_TEXT);
+        assertArrayEquals(PLAIN_TEXT, client.decrypt("test", cipherText));
+    }
+
+    @Test
+    void badBlockWidthIsAnsweredWithAnError() throws IOException {
+
+        // wider and narrower than the key, and far wider than the payload
+        for (int width : new int[] { blockWidth + 1, blockWidth - 1, 0, -1, 1 << 30 }) {
+            byte[] cipherText = cipherText(width, 2);
+            IOException e = assertRejected(cipherText);
+            assertTrue(e.getMessage().contains("lock width"), e.getMessage());
+        }
+        // the connection still serves good requests
+        assertArrayEquals(PLAIN_TEXT, client.decrypt("test", client.encrypt("test", PLAIN_TEXT)));
+    }
+
+    @Test
+    void truncatedCipherTextIsAnsweredWithAnError() throws IOException {
+
+        byte[] cipherText = client.encrypt("test", PLAIN_TEXT);
+        assertRejected(Arrays.copyOf(cipherText, cipherText.length - 1));
+        assertArrayEquals(PLAIN_TEXT, client.decrypt("test", cipherText));
+    }
+
+    private IOException assertRejected(final byte[] cipherText) {
+        return assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws IOException {
+                client.decrypt("test", cipherText);
+            }
+        });
+    }
+
+    /**
+     * A cipher text header claiming the width, followed by count blocks of the
+     * key's real width
+     */
+    private byte[] cipherText(int width, int count) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(CipherTextWriter.MAGIC);
+        out.writeByte(CipherTextWriter.VERSION);
+        out.writeInt(width);
+        out.writeLong(count);
+        out.write(new byte[count * blockWidth]);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,91 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Decryption with the CRT parameters against plain modPow with d
+ *
+ * @author Eric
+ *
+ */
+class RSATest {
+
+    @Test
+    void crtMatchesModPow() {
+
+        for (KeyPair keyPair : new KeyPair[] { TestKeys.small(), TestKeys.large() }) {
+            PublicKey pubKey = keyPair.getPublicKey();
+            PrivateKey privKey = keyPair.getPrivateKey();
+            assertNotNull(privKey.getQInv());
+            // without p and q, decrypt falls back to c^d mod n
+            PrivateKey plainKey = new PrivateKey(privKey.getN(), privKey.getD(), null, null, null, null, null);
+
+            Random random = new Random(3);
+            for (int i = 0; i < 50; i++) {
+                BigInteger m = new BigInteger(pubKey.getN().bitLength() - 1, random);
+                BigInteger c = RSA.encryptBlock(m, pubKey);
+                assertEquals(m, RSA.decrypt(c, privKey));
+                assertEquals(m, RSA.decrypt(c, plainKey));
+            }
+        }
+    }
+
+    @Test
+    void crtHandlesEdgeBlocks() {
+
+        PrivateKey privKey = TestKeys.small().getPrivateKey();
+        BigInteger n = privKey.getN();
+        PrivateKey plainKey = new PrivateKey(n, privKey.getD(), null, null, null, null, null);
+
+        // 0, 1, n - 1 and multiples of p and q, where m1 or m2 is 0
+        BigInteger[] blocks = { BigInteger.ZERO, BigInteger.ONE, n.subtract(BigInteger.ONE), privKey.getP(),
+                privKey.getQ(), privKey.getP().shiftLeft(3), privKey.getQ().multiply(BigInteger.valueOf(5)) };
+        for (BigInteger c : blocks) {
+            assertEquals(c.modPow(privKey.getD(), n), RSA.decrypt(c, privKey));
+            assertEquals(RSA.decrypt(c, plainKey), RSA.decrypt(c, privKey));
+        }
+    }
+
+    @Test
+    void keyFromFourArgumentConstructorComputesCrtParameters() {
+
+        PrivateKey privKey = TestKeys.small().getPrivateKey();
+        PrivateKey rebuilt = new PrivateKey(privKey.getN(), privKey.getD(), privKey.getP(), privKey.getQ());
+        assertEquals(privKey.getDP(), rebuilt.getDP());
+        assertEquals(privKey.getDQ(), rebuilt.getDQ());
+        assertEquals(privKey.getQInv(), rebuilt.getQInv());
+    }
+
+    @Test
+    void encryptAndDecryptAllRoundTrip() {
+
+        KeyPair keyPair = TestKeys.large();
+        byte[] plainText = "Grüße aus dem Test, 日本語 too".repeat(20)
+                .getBytes(StandardCharsets.UTF_8);
+        List<BigInteger> cipherText = RSA.encrypt(plainText, keyPair.getPublicKey());
+        assertArrayEquals(plainText, RSA.decryptAll(cipherText, keyPair.getPrivateKey(), null));
+    }
+
+    @Test
+    void decryptAllRejectsNoBlocks() {
+
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                RSA.decryptAll(Collections.<BigInteger> emptyList(), TestKeys.small().getPrivateKey(), null);
+            }
+        });
+    }
+}
@@ -0,0 +1,88 @@
+package rsa;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Records how much input a stream had read when it first wrote output, to
+ * check that streams are processed as they are read instead of all at once.
+ *
+ * @author Eric
+ *
+ */
+final class StreamProgress {
+
+    private final CountingInputStream in;
+    private long readAtFirstWrite = -1;
+    private long written;
+
+    StreamProgress(InputStream in) {
+        this.in = new CountingInputStream(in);
+    }
+
+    InputStream getInput() {
+        return in;
+    }
+
+    OutputStream getOutput() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (readAtFirstWrite < 0 && len > 0) {
+                    readAtFirstWrite = in.count;
+                }
+                written += len;
+            }
+        };
+    }
+
+    /**
+     * @return long - bytes read before the first byte was written, or -1 if
+     *         nothing was written
+     */
+    long getReadAtFirstWrite() {
+        return readAtFirstWrite;
+    }
+
+    long getRead() {
+        return in.count;
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
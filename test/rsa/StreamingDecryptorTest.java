@@ -0,0 +1,190 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+
+/**
+ * Windowed and sequential decryption with StreamingDecryptor
+ *
+ * @author Eric
+ *
+ */
+class StreamingDecryptorTest {
+
+    @Test
+    void roundTripWithAndWithoutExecutor() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        int blockBytes = BlockCodec.blockBytes(keyPair.getPublicKey().getN());
+        int[] sizes = { 0, 1, blockBytes, blockBytes + 1, 50 * blockBytes + 7 };
+        ExecutorService executor = new CountingExecutor(4);
+        try {
+            Random random = new Random(14);
+            for (int size : sizes) {
+                byte[] plainText = new byte[size];
+                random.nextBytes(plainText);
+                byte[] cipherText = encrypt(keyPair.getPublicKey(), plainText);
+
+                assertArrayEquals(plainText, decrypt(new StreamingDecryptor(keyPair.getPrivateKey()), cipherText),
+                        "size " + size);
+                for (int window : new int[] { 1, 2, 8 }) {
+                    StreamingDecryptor decryptor = new StreamingDecryptor(keyPair.getPrivateKey(), executor, window);
+                    assertArrayEquals(plainText, decrypt(decryptor, cipherText),
+                            "size " + size + ", window " + window);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void noMoreThanWindowBlocksInFlight() throws IOException {
+
+        KeyPair keyPair = TestKeys.large();
+        byte[] plainText = new byte[100 * BlockCodec.blockBytes(keyPair.getPublicKey().getN())];
+        new Random(14).nextBytes(plainText);
+        byte[] cipherText = encrypt(keyPair.getPublicKey(), plainText);
+
+        for (int window : new int[] { 1, 2, 3 }) {
+            // more threads than the window, so only the window limits it
+            CountingExecutor executor = new CountingExecutor(8);
+            try {
+                StreamingDecryptor decryptor = new StreamingDecryptor(keyPair.getPrivateKey(), executor, window);
+                assertArrayEquals(plainText, decrypt(decryptor, cipherText));
+                assertTrue(executor.maxRunning.get() <= window,
+                        "window " + window + ", " + executor.maxRunning.get() + " running");
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    @Test
+    void plainTextIsWrittenWhileReading() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        byte[] plainText = new byte[256 * 1024];
+        new Random(14).nextBytes(plainText);
+        byte[] cipherText = encrypt(keyPair.getPublicKey(), plainText);
+
+        ExecutorService executor = new CountingExecutor(2);
+        try {
+            StreamingDecryptor[] decryptors = { new StreamingDecryptor(keyPair.getPrivateKey()),
+                    new StreamingDecryptor(keyPair.getPrivateKey(), executor, 4) };
+            for (StreamingDecryptor decryptor : decryptors) {
+                StreamProgress progress = new StreamProgress(new ByteArrayInputStream(cipherText));
+                decryptor.decrypt(progress.getInput(), progress.getOutput());
+                assertEquals(plainText.length, progress.getWritten());
+                long readAtFirstWrite = progress.getReadAtFirstWrite();
+                assertTrue(readAtFirstWrite > 0 && readAtFirstWrite < cipherText.length / 4,
+                        String.valueOf(readAtFirstWrite));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void cipherTextWithoutBlocksIsRejected() throws IOException {
+
+        final KeyPair keyPair = TestKeys.small();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CipherTextWriter writer = new CipherTextWriter(out, keyPair.getPublicKey().getN(), 0);
+        writer.flush();
+        final byte[] empty = out.toByteArray();
+
+        final ExecutorService executor = new CountingExecutor(1);
+        try {
+            StreamingDecryptor[] decryptors = { new StreamingDecryptor(keyPair.getPrivateKey()),
+                    new StreamingDecryptor(keyPair.getPrivateKey(), executor, 2) };
+            for (final StreamingDecryptor decryptor : decryptors) {
+                IOException e = assertThrows(IOException.class, new Executable() {
+                    @Override
+                    public void execute() throws IOException {
+                        decrypt(decryptor, empty);
+                    }
+                });
+                assertEquals("Cipher text has no blocks", e.getMessage());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void windowMustBePositive() {
+
+        assertThrows(IllegalArgumentException.class, new Executable() {
+            @Override
+            public void execute() {
+                new StreamingDecryptor(TestKeys.small().getPrivateKey(), null, 0);
+            }
+        });
+    }
+
+    private static byte[] encrypt(PublicKey pubKey, byte[] plainText) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new StreamingEncryptor(pubKey).encrypt(new ByteArrayInputStream(plainText), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] decrypt(StreamingDecryptor decryptor, byte[] cipherText) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        decryptor.decrypt(new ByteArrayInputStream(cipherText), out);
+        return out.toByteArray();
+    }
+
+    /**
+     * Counts the tasks running at once. The count is taken inside the task,
+     * so it drops before the result is handed back to the decryptor.
+     */
+    private static class CountingExecutor extends ThreadPoolExecutor {
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+
+        CountingExecutor(int threads) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        protected <T> RunnableFuture<T> newTaskFor(final Callable<T> callable) {
+            return new FutureTask<T>(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    int now = running.incrementAndGet();
+                    int max = maxRunning.get();
+                    while (now > max && !maxRunning.compareAndSet(max, now)) {
+                        max = maxRunning.get();
+                    }
+                    try {
+                        return callable.call();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package rsa;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Block packing and incremental output of StreamingEncryptor
+ *
+ * @author Eric
+ *
+ */
+class StreamingEncryptorTest {
+
+    @Test
+    void blocksDecryptToTheInput() throws IOException {
+
+        KeyPair keyPair = TestKeys.small();
+        int blockBytes = BlockCodec.blockBytes(keyPair.getPublicKey().getN());
+        // empty, partial, exactly full and many blocks
+        int[] sizes = { 0, 1, blockBytes - 1, blockBytes, blockBytes + 1, 3 * blockBytes, 50 * blockBytes + 7 };
+        Random random = new Random(13);
+        for (int size : sizes) {
+            byte[] plainText = new byte[size];
+            random.nextBytes(plainText);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            long blocks = new StreamingEncryptor(keyPair.getPublicKey()).encrypt(new ByteArrayInputStream(plainText),
+                    out);
+            // the last block is always padded, so a full block adds an empty one
+            assertEquals(size / blockBytes + 1, blocks, "size " + size);
+
+            CipherTextReader reader = new CipherTextReader(new ByteArrayInputStream(out.toByteArray()));
+            assertEquals(CipherTextWriter.UNKNOWN_COUNT, reader.getBlockCount());
+            List<BigInteger> cipherText = new ArrayList<BigInteger>();
+            BigInteger c;
+            while ((c = reader.readBlock()) != null) {
+                cipherText.add(c);
+            }
+            assertEquals(blocks, cipherText.size());
+            assertArrayEquals(plainText, RSA.decryptAll(cipherText, keyPair.getPrivateKey(), null), "size " + size);
+        }
+    }
+
+    @Test
+    void cipherTextIsWrittenWhileReading() throws IOException {
+
+        PublicKey pubKey = TestKeys.small().getPublicKey();
+        byte[] plainText = new byte[256 * 1024];
+        new Random(13).nextBytes(plainText);
+
+        StreamProgress progress = new StreamProgress(new ByteArrayInputStream(plainText));
+        new StreamingEncryptor(pubKey).encrypt(progress.getInput(), progress.getOutput());
+        assertEquals(plainText.length, progress.getRead());
+        // only a buffer's worth is held back before the first write
+        long readAtFirstWrite = progress.getReadAtFirstWrite();
+        assertTrue(readAtFirstWrite > 0 && readAtFirstWrite < plainText.length / 4, String.valueOf(readAtFirstWrite));
+    }
+}
@@ -0,0 +1,39 @@
+package rsa;
+
+import java.util.Random;
+
+/**
+ * Key pairs shared by the tests. They are generated once from fixed seeds on
+ * the calling thread, so every run uses the same keys.
+ *
+ * @author Eric
+ *
+ */
+final class TestKeys {
+
+    private static KeyPair small;
+    private static KeyPair large;
+
+    private TestKeys() {
+    }
+
+    /**
+     * A 100 digit key pair with e = 65537
+     */
+    static synchronized KeyPair small() {
+        if (small == null) {
+            small = RSA.generateKeyPair(100, true, new Random(1), null, RSAListener.NONE);
+        }
+        return small;
+    }
+
+    /**
+     * A 309 digit (about 1024 bit) key pair with a random exponent
+     */
+    static synchronized KeyPair large() {
+        if (large == null) {
+            large = RSA.generateKeyPair(309, false, new Random(2), null, RSAListener.NONE);
+        }
+        return large;
+    }
+}